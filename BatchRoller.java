@@ -0,0 +1,327 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.random.RandomGenerator;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Bộ tung xúc xắc hàng loạt không cần giao diện (headless).
+ *
+ * Đọc các biểu thức xúc xắc, mỗi dòng một biểu thức (có thể dùng cú pháp "name=expr"
+ * giống JDice), và đẩy từng kết quả ra một Sink ngay khi tung xong. Dữ liệu được đọc
+ * theo từng khối có bộ đệm nên bộ nhớ dùng không phụ thuộc độ dài file.
+ */
+public class BatchRoller {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchRoller.class.getName());
+
+    /** Kích thước mỗi cửa sổ ánh xạ bộ nhớ khi đọc file. */
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+    /**
+     * Nơi nhận kết quả của từng dòng.
+     */
+    public interface Sink {
+
+        /**
+         * Được gọi một lần cho mỗi DieRoll của một dòng hợp lệ.
+         *
+         * @param line Số thứ tự dòng (tính từ 1)
+         * @param name Tên trước dấu '=' hoặc null nếu dòng không đặt tên
+         * @param roll DieRoll vừa tung
+         * @param result Kết quả tung
+         */
+        void onRoll(long line, String name, DieRoll roll, RollResult result) throws IOException;
+
+        /**
+         * Được gọi khi một dòng không phân tích được.
+         *
+         * @param line Số thứ tự dòng (tính từ 1)
+         * @param expression Biểu thức lỗi
+         * @param error Chi tiết lỗi
+         */
+        void onError(long line, String expression, DiceParseException error) throws IOException;
+    }
+
+    /**
+     * Sink ghi kết quả ra Writer theo định dạng danh sách của JDice:
+     * "name: 2d6+3  =>  12 <= [4, 5] (modifier: 3)". Writer nên có bộ đệm.
+     *
+     * @param out Writer đích (không được đóng hoặc flush bởi BatchRoller)
+     * @return Sink ghi ra out
+     */
+    public static Sink writerSink(Writer out) {
+        return new Sink() {
+            @Override
+            public void onRoll(long line, String name, DieRoll roll, RollResult result) throws IOException {
+                if (name != null) {
+                    out.write(name);
+                    out.write(": ");
+                }
+                out.write(roll.getExpression());
+                out.write("  =>  ");
+                out.write(result.toString());
+                out.write('\n');
+            }
+
+            @Override
+            public void onError(long line, String expression, DiceParseException error) throws IOException {
+                out.write("line " + line + ": Invalid dice string: " + expression + " - " + error.getReason() + '\n');
+            }
+        };
+    }
+
+    /**
+     * Kiểm tra kế hoạch tung của một dòng trước khi tung (ví dụ tổng số mặt của RollServer).
+     * Ném DiceParseException để báo dòng lỗi qua Sink.onError, hoặc một RuntimeException
+     * khác để dừng cả lô.
+     */
+    interface Guard {
+        void check(CompiledRoll plan, String expression);
+    }
+
+    private final Sink sink;
+    private final RandomGenerator random;
+    private Guard guard;
+    private int maxDice = Integer.MAX_VALUE;
+    private int maxRepeat = Integer.MAX_VALUE;
+    private final boolean addressed;
+    private final long seed;
+    private long lines;
+
+    /**
+     * @param sink Nơi nhận kết quả
+     */
+    public BatchRoller(Sink sink) {
+        this(sink, RandomSources.threadLocal());
+    }
+
+    /**
+     * @param sink Nơi nhận kết quả
+     * @param random Nguồn ngẫu nhiên, ví dụ RandomSources.seeded(seed) để có thể replay
+     */
+    public BatchRoller(Sink sink, RandomGenerator random) {
+        if (sink == null || random == null) {
+            throw new IllegalArgumentException("Sink và nguồn ngẫu nhiên không được null");
+        }
+        this.sink = sink;
+        this.random = random;
+        this.addressed = false;
+        this.seed = 0;
+    }
+
+    /**
+     * Chế độ tất định theo địa chỉ cho toàn bộ input, đánh số dòng từ 1.
+     * Tương đương BatchRoller(sink, seed, 1).
+     *
+     * @param sink Nơi nhận kết quả
+     * @param seed Seed gốc
+     */
+    public BatchRoller(Sink sink, long seed) {
+        this(sink, seed, 1);
+    }
+
+    /**
+     * Chế độ tất định theo địa chỉ: phần thứ j (sau ';' hoặc 'x') của dòng thứ n được tung bằng
+     * DieRoll.roll(CounterRandom.key(seed, n), j). Kết quả của mỗi dòng chỉ phụ thuộc (seed, n, j),
+     * và một dòng bất kỳ tính lại được mà không cần tung lại các dòng trước.
+     *
+     * n là số thứ tự của dòng trong toàn bộ input (tính từ 1), không phải trong phần mà roller
+     * này đọc. Khi chia input cho nhiều worker, mỗi worker phải nhận đúng số thứ tự của dòng
+     * đầu tiên trong phần của nó (ví dụ phần thứ hai bắt đầu ở dòng 1001 thì firstLine = 1001)
+     * và phần đó phải bắt đầu ở đầu một dòng; khi đó mọi cách chia đều cho cùng đầu ra với
+     * một roller đọc toàn bộ input. Số dòng truyền cho Sink cũng là số thứ tự toàn cục này.
+     *
+     * @param sink Nơi nhận kết quả
+     * @param seed Seed gốc
+     * @param firstLine Số thứ tự (tính từ 1) của dòng đầu tiên mà roller này đọc
+     * @throws IllegalArgumentException nếu sink null hoặc firstLine nhỏ hơn 1
+     */
+    public BatchRoller(Sink sink, long seed, long firstLine) {
+        if (sink == null) {
+            throw new IllegalArgumentException("Sink không được null");
+        }
+        if (firstLine < 1) {
+            throw new IllegalArgumentException("Số thứ tự dòng đầu tiên phải lớn hơn 0");
+        }
+        this.sink = sink;
+        this.random = null;
+        this.addressed = true;
+        this.seed = seed;
+        this.lines = firstLine - 1;
+    }
+
+    /**
+     * @param guard Bộ kiểm tra chạy trên mỗi dòng trước khi tung, hoặc null để bỏ
+     */
+    void setGuard(Guard guard) {
+        this.guard = guard;
+    }
+
+    /**
+     * Giới hạn truyền cho DiceParser.parse(String, int, int) khi phân tích mỗi dòng;
+     * dòng vượt giới hạn được báo qua Sink.onError. Mặc định không giới hạn.
+     *
+     * @param maxDice Số xúc xắc tối đa của một số hạng
+     * @param maxRepeat Số lần lặp "Nx" tối đa
+     */
+    void setLimits(int maxDice, int maxRepeat) {
+        this.maxDice = maxDice;
+        this.maxRepeat = maxRepeat;
+    }
+
+    /**
+     * @return Số thứ tự của dòng cuối cùng đã đọc (kể cả dòng trống); bằng số dòng đã đọc
+     *         khi roller bắt đầu từ dòng 1
+     */
+    public long getLineCount() {
+        return lines;
+    }
+
+    /**
+     * Xử lý toàn bộ các dòng từ Reader.
+     *
+     * @param in Nguồn dữ liệu (không bị đóng)
+     * @throws IOException nếu đọc hoặc Sink gặp lỗi
+     */
+    public void run(Reader in) throws IOException {
+        BufferedReader br = (in instanceof BufferedReader) ? (BufferedReader) in : new BufferedReader(in, 1 << 16);
+        String s;
+        while ((s = br.readLine()) != null) {
+            processLine(s);
+        }
+    }
+
+    /**
+     * Xử lý toàn bộ các dòng từ InputStream (UTF-8).
+     *
+     * @param in Nguồn dữ liệu (không bị đóng)
+     * @throws IOException nếu đọc hoặc Sink gặp lỗi
+     */
+    public void run(InputStream in) throws IOException {
+        run(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Xử lý file bằng cách ánh xạ bộ nhớ (memory-mapped) từng cửa sổ MAP_WINDOW byte.
+     * Chỉ một cửa sổ và một dòng được giữ trong bộ nhớ tại một thời điểm.
+     *
+     * @param file File UTF-8, mỗi dòng một biểu thức
+     * @throws IOException nếu đọc hoặc Sink gặp lỗi
+     */
+    public void run(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            byte[] line = new byte[256];
+            int len = 0;
+            boolean lastWasCr = false;
+            for (long pos = 0; pos < size; pos += MAP_WINDOW) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW, size - pos));
+                while (buf.hasRemaining()) {
+                    byte b = buf.get();
+                    if (b == '\n' || b == '\r') {
+                        if (!(b == '\n' && lastWasCr)) {
+                            processLine(new String(line, 0, len, StandardCharsets.UTF_8));
+                        }
+                        len = 0;
+                        lastWasCr = (b == '\r');
+                        continue;
+                    }
+                    lastWasCr = false;
+                    if (len == line.length) {
+                        byte[] bigger = new byte[line.length * 2];
+                        System.arraycopy(line, 0, bigger, 0, len);
+                        line = bigger;
+                    }
+                    line[len++] = b;
+                }
+            }
+            if (len > 0) {
+                processLine(new String(line, 0, len, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Phân tích và tung một dòng. Dòng trống được bỏ qua.
+     */
+    private void processLine(String s) throws IOException {
+        lines++;
+        int eq = s.lastIndexOf('=');
+        String name = (eq < 0) ? null : s.substring(0, eq);
+        String expr = (eq < 0) ? s : s.substring(eq + 1);
+        if (expr.trim().isEmpty()) {
+            return;
+        }
+        CompiledRoll plan;
+        try {
+            plan = DiceParser.parse(expr, maxDice, maxRepeat);
+            if (guard != null) {
+                guard.check(plan, expr);
+            }
+        } catch (DiceParseException e) {
+            sink.onError(lines, expr, e);
+            return;
+        }
+        if (addressed) {
+            long key = CounterRandom.key(seed, lines);
+            for (int i = 0; i < plan.size(); i++) {
+                DieRoll dr = plan.get(i);
+                sink.onRoll(lines, name, dr, dr.roll(key, i));
+            }
+            return;
+        }
+        RollResult[] results = plan.roll(random);
+        for (int i = 0; i < plan.size(); i++) {
+            sink.onRoll(lines, name, plan.get(i), results[i]);
+        }
+    }
+
+    /**
+     * Dùng từ dòng lệnh: java BatchRoller input.txt [output.txt]
+     * Không có output thì ghi ra stdout.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java BatchRoller <input> [output]");
+            System.exit(2);
+        }
+        Writer out = (args.length >= 2)
+                ? Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)
+                : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        try {
+            BatchRoller roller = new BatchRoller(writerSink(out));
+            roller.run(Paths.get(args[0]));
+            LOGGER.log(Level.INFO, "Batch finished: {0} lines", roller.getLineCount());
+        } finally {
+            out.flush();
+            if (args.length >= 2) {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+import java.util.*;
+import java.util.random.RandomGenerator;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Kế hoạch tung (roll plan) đã được phân tích sẵn từ một biểu thức xúc xắc.
+ *
+ * Đối tượng là bất biến và có thể dùng lại giữa nhiều lần tung / nhiều luồng,
+ * vì vậy DiceParser lưu nó trong ParseCache: lần gọi sau với cùng biểu thức
+ * không cần phân tích cú pháp lại, chi phí chỉ còn là việc tung xúc xắc.
+ *
+ * Mỗi lần tung cả kế hoạch (roll(), roll(RandomGenerator) hoặc roll(RandomGenerator, int[])) được
+ * đếm; khi vượt ngưỡng jdice.compile.threshold (mặc định 1000, 0 hoặc âm để tắt) kế hoạch được
+ * RollCompiler biên dịch thành một hidden class và các lần tung sau chạy bản biên dịch. Bản biên
+ * dịch cho kết quả giống hệt bản thông dịch. Đếm lần tung chứ không đếm lần trúng ParseCache:
+ * người gọi giữ lại CompiledRoll thì tung nhiều lần mà không tra cache lần nào.
+ * Bộ đếm không đồng bộ nên có thể mất vài lần đếm: lần đếm đầu tiên đạt hoặc vượt ngưỡng sẽ
+ * kích hoạt việc biên dịch, và việc này chỉ được thử một lần (thất bại thì giữ bản thông dịch).
+ *
+ * Kế hoạch là bất biến (các DieRoll bên trong cũng vậy) nên một instance dùng chung được cho
+ * mọi luồng tung mà không cần khoá: trạng thái duy nhất thay đổi là kernel (volatile, chỉ đổi
+ * một lần) và bộ đếm độ nóng. equals / hashCode so các DieRoll, không so chuỗi biểu thức.
+ */
+public final class CompiledRoll {
+
+    private static final int COMPILE_THRESHOLD = Integer.getInteger("jdice.compile.threshold", 1000);
+
+    /**
+     * Thân vòng tung của roll(RandomGenerator, int[]): bản thông dịch hoặc hidden class.
+     */
+    interface Kernel {
+        void roll(RandomGenerator random, int[] out);
+    }
+
+    private final String expression;
+    private final DieRoll[] rolls;
+    private final List<DieRoll> view;
+    private final long faceCount;
+    private final int maxDice;
+    private final int maxRepeat;
+    private final Kernel interpreter = this::interpret;
+    private volatile Kernel kernel = interpreter;
+    private volatile boolean compileAttempted;
+    private int hits; // không đồng bộ: chỉ dùng làm ước lượng độ nóng, có thể mất vài lần đếm
+
+    /**
+     * Kế hoạch không có phép lặp "Nx" (ví dụ giải mã từ RollCodec): số xúc xắc lớn nhất
+     * lấy từ chính các DieRoll.
+     *
+     * @param expression Biểu thức đã chuẩn hoá dùng làm khoá cache
+     * @param rolls Danh sách DieRoll theo đúng thứ tự DiceParser trả về
+     */
+    CompiledRoll(String expression, List<DieRoll> rolls) {
+        this(expression, rolls, maxNumDice(rolls), 0);
+    }
+
+    /**
+     * @param expression Biểu thức đã chuẩn hoá dùng làm khoá cache
+     * @param rolls Danh sách DieRoll theo đúng thứ tự DiceParser trả về
+     * @param maxDice Số xúc xắc lớn nhất của một số hạng trong biểu thức
+     * @param maxRepeat Số lần lặp "Nx" lớn nhất trong biểu thức, 0 nếu không có
+     */
+    CompiledRoll(String expression, List<DieRoll> rolls, int maxDice, int maxRepeat) {
+        this.expression = expression;
+        this.rolls = rolls.toArray(new DieRoll[0]);
+        this.view = Collections.unmodifiableList(Arrays.asList(this.rolls));
+        long faces = 0;
+        for (DieRoll dr : this.rolls) {
+            faces += dr.getNumDice();
+        }
+        this.faceCount = faces;
+        this.maxDice = maxDice;
+        this.maxRepeat = maxRepeat;
+    }
+
+    private static int maxNumDice(List<DieRoll> rolls) {
+        int m = 0;
+        for (DieRoll dr : rolls) {
+            m = Math.max(m, dr.getNumDice());
+        }
+        return m;
+    }
+
+    /**
+     * @return Biểu thức đã chuẩn hoá
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return Số lượng DieRoll trong kế hoạch
+     */
+    public int size() {
+        return rolls.length;
+    }
+
+    /**
+     * @param index Vị trí DieRoll
+     * @return DieRoll tại vị trí index
+     */
+    public DieRoll get(int index) {
+        return rolls[index];
+    }
+
+    /**
+     * @return Danh sách DieRoll chỉ đọc
+     */
+    public List<DieRoll> getRolls() {
+        return view;
+    }
+
+    /**
+     * Tạo một Vector mới (có thể sửa) chứa các DieRoll, dùng cho API cũ DiceParser.parseRoll.
+     *
+     * @return Vector mới chứa các DieRoll
+     */
+    public Vector<DieRoll> toVector() {
+        return new Vector<>(view);
+    }
+
+    /**
+     * Tung lần lượt từng DieRoll trong kế hoạch.
+     *
+     * @return Mảng kết quả, cùng thứ tự với getRolls()
+     */
+    public RollResult[] roll() {
+        return roll(RandomSources.threadLocal());
+    }
+
+    /**
+     * Tung lần lượt từng DieRoll trong kế hoạch với nguồn ngẫu nhiên cho trước.
+     *
+     * @param random Nguồn ngẫu nhiên
+     * @return Mảng kết quả, cùng thứ tự với getRolls()
+     */
+    public RollResult[] roll(RandomGenerator random) {
+        if (random == null) {
+            throw new IllegalArgumentException("Nguồn ngẫu nhiên không được null");
+        }
+        RollResult[] results = new RollResult[rolls.length];
+        Kernel k = promote();
+        if (k == interpreter || faceCount > Integer.MAX_VALUE - rolls.length) {
+            for (int i = 0; i < rolls.length; i++) {
+                results[i] = rolls[i].roll(random);
+            }
+            return results;
+        }
+        // Bản biên dịch dùng luồng ngẫu nhiên giống hệt DieRoll.roll lần lượt từng phần,
+        // nên chỉ cần tách mảng ra thành các RollResult.
+        int[] out = new int[rolls.length + (int) faceCount];
+        k.roll(random, out);
+        RollMetrics.rolled(rolls.length, faceCount);
+        int offset = rolls.length;
+        for (int i = 0; i < rolls.length; i++) {
+            int n = rolls[i].getNumDice();
+            int sum = 0;
+            for (int j = offset; j < offset + n; j++) {
+                sum += out[j];
+            }
+            results[i] = new RollResult(out[i], out[i] - sum, Arrays.copyOfRange(out, offset, offset + n), n);
+            offset += n;
+            if (RollTrace.isEnabled()) {
+                RollTrace.roll(rolls[i], results[i]);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return Tổng số mặt mà roll(RandomGenerator, int[]) ghi ra
+     */
+    public long getFaceCount() {
+        return faceCount;
+    }
+
+    /**
+     * @return Số xúc xắc lớn nhất của một số hạng như được viết trong biểu thức (trước tối ưu)
+     */
+    int getMaxDice() {
+        return maxDice;
+    }
+
+    /**
+     * @return Số lần lặp "Nx" lớn nhất trong biểu thức, 0 nếu không có
+     */
+    int getMaxRepeat() {
+        return maxRepeat;
+    }
+
+    /**
+     * Tung toàn bộ kế hoạch vào một mảng, không cấp phát RollResult.
+     * out[0 .. size()) nhận tổng của từng phần; các mặt của phần 0, 1, ... nối tiếp nhau từ out[size()].
+     *
+     * @param random Nguồn ngẫu nhiên
+     * @param out Mảng đích, cần ít nhất size() + getFaceCount() phần tử
+     * @throws IllegalArgumentException nếu random null hoặc out quá ngắn
+     */
+    public void roll(RandomGenerator random, int[] out) {
+        if (random == null) {
+            throw new IllegalArgumentException("Nguồn ngẫu nhiên không được null");
+        }
+        if (out.length - rolls.length < faceCount) {
+            throw new IllegalArgumentException("Mảng đích cần ít nhất " + (rolls.length + faceCount) + " phần tử");
+        }
+        promote().roll(random, out);
+        RollMetrics.rolled(rolls.length, faceCount);
+    }
+
+    /**
+     * Đếm một lần tung cả kế hoạch và biên dịch khi đủ nóng.
+     *
+     * @return Kernel dùng cho lần tung này
+     */
+    private Kernel promote() {
+        Kernel k = kernel;
+        // ">=" chứ không phải "==": khi nhiều luồng cùng đếm, giá trị đúng bằng ngưỡng có thể bị bỏ qua.
+        if (k == interpreter && COMPILE_THRESHOLD > 0 && !compileAttempted && ++hits >= COMPILE_THRESHOLD) {
+            k = compileKernel();
+        }
+        return k;
+    }
+
+    /**
+     * @return true nếu các lần tung đang chạy bản biên dịch
+     */
+    public boolean isCompiled() {
+        return kernel != interpreter;
+    }
+
+    private synchronized Kernel compileKernel() {
+        if (!compileAttempted) {
+            compileAttempted = true;
+            Kernel compiled = RollCompiler.compile(rolls);
+            if (compiled != null) {
+                kernel = compiled;
+            }
+        }
+        return kernel;
+    }
+
+    private void interpret(RandomGenerator random, int[] out) {
+        int offset = rolls.length;
+        for (int i = 0; i < rolls.length; i++) {
+            out[i] = rolls[i].rollFaces(random, out, offset);
+            offset += rolls[i].getNumDice();
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof CompiledRoll) && Arrays.equals(rolls, ((CompiledRoll) o).rolls);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(rolls);
+    }
+
+    @Override
+    public String toString() {
+        return expression + " => " + view;
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.random.RandomGenerator;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Nguồn ngẫu nhiên dựa trên bộ đếm (counter-based), đánh địa chỉ bằng (seed, rollId, counter).
+ *
+ * Giá trị thứ c của luồng (seed, rollId) là mix64(key + gamma * (c + 1)), trong đó key và
+ * gamma (lẻ) được băm từ (seed, rollId) giống cách SplittableRandom tách luồng. Vì giá trị chỉ
+ * phụ thuộc toạ độ, không phụ thuộc trạng thái trước đó:
+ * - một lần tung bất kỳ được tính lại trong O(1) từ (seed, rollId), không cần chạy lại từ đầu;
+ * - các worker song song dùng các rollId khác nhau mà không cần phối hợp, nên kết quả giống
+ *   hệt nhau dù chạy bao nhiêu luồng.
+ *
+ * DieRoll.roll(seed, rollId) dùng face() với counter = chỉ số xúc xắc, nên mặt thứ i của một
+ * lần tung chỉ phụ thuộc (seed, rollId, i). Đối tượng CounterRandom (RandomGenerator) dùng cho
+ * các API nhận RandomGenerator; nó không an toàn khi dùng chung giữa các luồng.
+ */
+public final class CounterRandom implements RandomGenerator {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /** Lần thử thứ j của xúc xắc i dùng counter i + j * ATTEMPT_STRIDE. */
+    private static final long ATTEMPT_STRIDE = 1L << 32;
+
+    private final long key;
+    private final long gamma;
+    private long counter;
+
+    /**
+     * @param seed Seed gốc
+     * @param rollId Định danh lần tung / luồng con
+     */
+    public CounterRandom(long seed, long rollId) {
+        this.key = key(seed, rollId);
+        this.gamma = gamma(seed, rollId);
+    }
+
+    /**
+     * @return Vị trí hiện tại trong luồng
+     */
+    public long getCounter() {
+        return counter;
+    }
+
+    /**
+     * Nhảy tới vị trí bất kỳ trong luồng, O(1).
+     *
+     * @param counter Vị trí mới
+     */
+    public void seek(long counter) {
+        this.counter = counter;
+    }
+
+    @Override
+    public long nextLong() {
+        return at(key, gamma, counter++);
+    }
+
+    /**
+     * Mặt thứ dieIndex của lần tung (seed, rollId) với xúc xắc sides mặt, không lệch
+     * (phép nhân-dịch của Lemire, lấy lại ở counter khác khi bị loại).
+     *
+     * @return Mặt trong [1, sides]
+     */
+    public static int face(long seed, long rollId, int dieIndex, int sides) {
+        return faceAt(key(seed, rollId), gamma(seed, rollId), dieIndex, sides);
+    }
+
+    static int faceAt(long key, long gamma, int dieIndex, int sides) {
+        long threshold = -1;
+        for (long c = dieIndex & 0xFFFFFFFFL; ; c += ATTEMPT_STRIDE) {
+            long bits = at(key, gamma, c);
+            // Hai ứng viên 32 bit trong mỗi giá trị 64 bit; hiếm khi cần tới lần thử sau.
+            for (int half = 0; half < 2; half++) {
+                long m = ((half == 0 ? bits >>> 32 : bits) & 0xFFFFFFFFL) * sides;
+                if ((m & 0xFFFFFFFFL) < sides) {
+                    if (threshold < 0) {
+                        threshold = (1L << 32) % sides;
+                    }
+                    if ((m & 0xFFFFFFFFL) < threshold) {
+                        continue;
+                    }
+                }
+                return (int) (m >>> 32) + 1;
+            }
+        }
+    }
+
+    static long key(long seed, long rollId) {
+        return mix64(seed ^ mix64(rollId + GOLDEN_GAMMA));
+    }
+
+    static long gamma(long seed, long rollId) {
+        // Biến thể mix của SplittableRandom.mixGamma: luôn lẻ.
+        long z = mix64(seed + GOLDEN_GAMMA * 3) ^ mix64(rollId * GOLDEN_GAMMA + 7);
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return (z ^ (z >>> 33)) | 1L;
+    }
+
+    static long at(long key, long gamma, long counter) {
+        return mix64(key + gamma * (counter + 1));
+    }
+
+    /**
+     * Hàm trộn của SplitMix64 (Stafford variant 13).
+     */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,519 @@
+import java.util.Arrays;
+import java.util.List;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Phân phối xác suất chính xác của tổng một DieRoll / DiceSum, tính bằng tích chập
+ * thay vì mô phỏng Monte-Carlo.
+ *
+ * - NdS nhỏ: cộng dồn từng xúc xắc, mỗi bước cộng S phần tử liền kề, O(N² * S²).
+ * - NdS lớn: luỹ thừa bằng bình phương liên tiếp, tích chập bằng FFT khi mảng lớn.
+ * - DiceSum: tích chập phân phối của các số hạng.
+ * - Tung lại ("2d20r1"): như NdS nhưng với xúc xắc S - T mặt, dịch đi N * T.
+ * - Xúc xắc nổ ("3d6!"): phân phối của một xúc xắc (có chặn số lần nổ) rồi luỹ thừa như NdS.
+ * - Đếm thành công ("10d10>=7"): phân phối nhị thức, tính trong miền log.
+ * - Giữ K xúc xắc ("4d6kh3"): quy hoạch động duyệt các giá trị từ S xuống 1; ở giá trị v, số
+ *   xúc xắc còn lại ra đúng v theo phân phối nhị thức có điều kiện B(r, 1/v). Trạng thái chỉ cần
+ *   số xúc xắc đã giữ (dưới K) và tổng của chúng, O(S² * K³); giữ thấp nhất là ảnh gương.
+ *
+ * Mọi giá trị trung gian là xác suất trong [0, 1] nên không tràn số; cộng dồn và
+ * tích chập trực tiếp chỉ cộng các số không âm (không có phép trừ) nên giữ được độ chính
+ * xác tương đối cả ở đuôi, ví dụ P(100d6 = 600) = 6^-100.
+ * Với FFT, các xác suất nhỏ hơn khoảng 1e-15 lần giá trị lớn nhất chỉ còn là nhiễu làm tròn
+ * và được cắt về 0.
+ */
+public final class DiceDistribution {
+
+    /** Số phần tử tối đa của một phân phối (khoảng giá trị tổng). */
+    static final int MAX_RANGE = 1 << 24;
+
+    /** Dưới ngưỡng N*N*S*S này cộng dồn từng xúc xắc, trên ngưỡng dùng bình phương liên tiếp. */
+    private static final long STEPWISE_LIMIT = 100_000_000L;
+
+    /** Dưới ngưỡng a.length*b.length này tích chập trực tiếp, trên ngưỡng dùng FFT. */
+    private static final long DIRECT_LIMIT = 1L << 20;
+
+    /** Số bước tối đa (S² * K³) của quy hoạch động cho phép giữ K xúc xắc. */
+    private static final double KEEP_WORK_LIMIT = 2e8;
+
+    private final int min;
+    private final double[] pmf;
+    private final double[] cdf;
+    private final double mean;
+    private final double variance;
+
+    private DiceDistribution(int min, double[] pmf) {
+        this.min = min;
+        this.pmf = pmf;
+        this.cdf = new double[pmf.length];
+        double acc = 0;
+        double m = 0;
+        for (int i = 0; i < pmf.length; i++) {
+            acc += pmf[i];
+            cdf[i] = acc;
+            m += pmf[i] * i;
+        }
+        double v = 0;
+        for (int i = 0; i < pmf.length; i++) {
+            double d = i - m;
+            v += pmf[i] * d * d;
+        }
+        this.mean = m + min;
+        this.variance = v;
+    }
+
+    /**
+     * Tính phân phối của tổng một DieRoll (bao gồm cây DiceSum do DiceParser tạo ra).
+     *
+     * @param roll DieRoll cần tính
+     * @return Phân phối chính xác của tổng
+     * @throws IllegalArgumentException nếu khoảng giá trị vượt quá MAX_RANGE
+     */
+    public static DiceDistribution of(DieRoll roll) {
+        Part p = compute(roll);
+        return new DiceDistribution(p.min, p.pmf);
+    }
+
+    private static final class Part {
+        final int min;
+        final double[] pmf;
+
+        Part(int min, double[] pmf) {
+            this.min = min;
+            this.pmf = pmf;
+        }
+    }
+
+    private static Part compute(DieRoll roll) {
+        if (roll instanceof DiceSum) {
+            List<DieRoll> terms = ((DiceSum) roll).getTerms();
+            Part acc = compute(terms.get(0));
+            for (int i = 1; i < terms.size(); i++) {
+                Part next = compute(terms.get(i));
+                acc = new Part(acc.min + next.min, convolve(acc.pmf, next.pmf));
+            }
+            return acc;
+        }
+        int n = roll.getNumDice();
+        int s = roll.getNumSides();
+        int bonus = roll.getBonus();
+        if (roll instanceof KeepDieRoll) {
+            KeepDieRoll keep = (KeepDieRoll) roll;
+            int k = keep.getKeep();
+            if (k == n) {
+                return new Part(n + bonus, dice(n, s));
+            }
+            double[] pmf = keepHighest(n, s, k);
+            if (!keep.isHighest()) {
+                reverse(pmf);
+            }
+            return new Part(k + bonus, pmf);
+        }
+        if (roll instanceof ExplodingDieRoll) {
+            return new Part(n + bonus, power(explodingDie(s), n));
+        }
+        if (roll instanceof RerollDieRoll) {
+            int t = ((RerollDieRoll) roll).getThreshold();
+            return new Part(n * (t + 1) + bonus, dice(n, s - t));
+        }
+        if (roll instanceof SuccessDieRoll) {
+            int t = ((SuccessDieRoll) roll).getTarget();
+            checkRange((long) n + 1);
+            return new Part(bonus, binomial(n, (double) (s - t + 1) / s));
+        }
+        return new Part(n + bonus, dice(n, s));
+    }
+
+    /**
+     * Phân phối của tổng n xúc xắc s mặt, chỉ số 0 ứng với tổng n.
+     */
+    static double[] dice(int n, int s) {
+        checkRange((long) n * (s - 1) + 1);
+        if ((double) n * n * s * s <= STEPWISE_LIMIT) {
+            return stepwiseDice(n, s);
+        }
+        double[] die = new double[s];
+        Arrays.fill(die, 1.0 / s);
+        return power(die, n);
+    }
+
+    /**
+     * Phân phối của tổng n bản độc lập của die, bằng bình phương liên tiếp.
+     */
+    private static double[] power(double[] die, int n) {
+        checkRange((long) n * (die.length - 1) + 1);
+        double[] result = null;
+        double[] base = die;
+        for (int e = n; e > 0; e >>>= 1) {
+            if ((e & 1) != 0) {
+                result = (result == null) ? base : convolve(result, base);
+            }
+            if (e > 1) {
+                base = convolve(base, base);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Một xúc xắc nổ s mặt, chỉ số 0 ứng với 1: sau j lần nổ (j < MAX_EXPLOSIONS) giá trị là
+     * j * s + r với r từ 1 đến s - 1, xác suất s^-(j + 1); sau lần nổ cuối r chạy tới s.
+     */
+    private static double[] explodingDie(int s) {
+        int cap = ExplodingDieRoll.MAX_EXPLOSIONS;
+        double[] die = new double[s * (cap + 1)];
+        double p = 1.0 / s;
+        for (int j = 0; j <= cap; j++) {
+            int last = (j < cap) ? s - 1 : s;
+            for (int r = 1; r <= last; r++) {
+                die[j * s + r - 1] = p;
+            }
+            p /= s;
+        }
+        return die;
+    }
+
+    /**
+     * Phân phối nhị thức B(n, p), chỉ số là số lần thành công. Tính trong miền log để
+     * q^n không bị tràn dưới khi n lớn.
+     */
+    static double[] binomial(int n, double p) {
+        double[] pmf = new double[n + 1];
+        if (p >= 1) {
+            pmf[n] = 1;
+            return pmf;
+        }
+        if (p <= 0) {
+            pmf[0] = 1;
+            return pmf;
+        }
+        double lp = Math.log(p);
+        double lq = Math.log1p(-p);
+        double logC = 0;
+        for (int c = 0; c <= n; c++) {
+            pmf[c] = Math.exp(logC + c * lp + (n - c) * lq);
+            if (c < n) {
+                logC += Math.log(n - c) - Math.log(c + 1);
+            }
+        }
+        return pmf;
+    }
+
+    /**
+     * Tổng k mặt cao nhất của n xúc xắc s mặt (k < n), chỉ số 0 ứng với tổng k.
+     *
+     * cur[u][sum] là xác suất đã có u xúc xắc (u < k) mang các giá trị lớn hơn v với tổng sum;
+     * n - u xúc xắc còn lại phân phối đều trên [1, v]. Khi số xúc xắc đã giữ đạt k, phần còn lại
+     * không ảnh hưởng tổng nên được dồn thẳng vào kết quả.
+     */
+    private static double[] keepHighest(int n, int s, int k) {
+        checkRange((long) k * (s - 1) + 1);
+        if ((double) s * s * k * k * k > KEEP_WORK_LIMIT) {
+            throw new IllegalArgumentException("Phép giữ " + k + " trong " + n + "d" + s
+                    + " quá lớn để tính phân phối chính xác");
+        }
+        int width = k * s + 1;
+        double[][] cur = new double[k][width];
+        cur[0][0] = 1;
+        double[] done = new double[width];
+        for (int v = s; v >= 1; v--) {
+            double[][] next = new double[k][width];
+            for (int u = 0; u < k; u++) {
+                double[] row = cur[u];
+                int need = k - u;
+                double[] bin = (v > 1) ? binomial(n - u, 1.0 / v) : null;
+                double tail = 0;
+                if (bin != null) {
+                    for (int c = bin.length - 1; c >= need; c--) {
+                        tail += bin[c];
+                    }
+                }
+                for (int sum = 0; sum < width; sum++) {
+                    double p = row[sum];
+                    if (p == 0) {
+                        continue;
+                    }
+                    if (bin == null) {
+                        // v = 1: mọi xúc xắc còn lại đều ra 1.
+                        done[sum + need] += p;
+                        continue;
+                    }
+                    for (int c = 0; c < need; c++) {
+                        next[u + c][sum + c * v] += p * bin[c];
+                    }
+                    done[sum + need * v] += p * tail;
+                }
+            }
+            cur = next;
+        }
+        return Arrays.copyOfRange(done, k, width);
+    }
+
+    private static void reverse(double[] a) {
+        for (int i = 0, j = a.length - 1; i < j; i++, j--) {
+            double t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    /**
+     * Thêm từng xúc xắc: p'[t] = (p[t] + p[t-1] + ... + p[t-s+1]) / s.
+     * Không dùng tổng trượt (cộng rồi trừ) vì phép trừ làm mất độ chính xác ở đuôi.
+     */
+    private static double[] stepwiseDice(int n, int s) {
+        double[] cur = {1.0};
+        double inv = 1.0 / s;
+        for (int k = 0; k < n; k++) {
+            double[] next = new double[cur.length + s - 1];
+            for (int i = 0; i < cur.length; i++) {
+                double p = cur[i] * inv;
+                for (int f = 0; f < s; f++) {
+                    next[i + f] += p;
+                }
+            }
+            cur = next;
+        }
+        return cur;
+    }
+
+    /**
+     * Tích chập hai phân phối (trực tiếp hoặc FFT tuỳ kích thước).
+     */
+    static double[] convolve(double[] a, double[] b) {
+        checkRange((long) a.length + b.length - 1);
+        if ((long) a.length * b.length <= DIRECT_LIMIT) {
+            double[] out = new double[a.length + b.length - 1];
+            for (int i = 0; i < a.length; i++) {
+                double ai = a[i];
+                if (ai == 0) {
+                    continue;
+                }
+                for (int j = 0; j < b.length; j++) {
+                    out[i + j] += ai * b[j];
+                }
+            }
+            return out;
+        }
+        return fftConvolve(a, b);
+    }
+
+    private static double[] fftConvolve(double[] a, double[] b) {
+        int len = a.length + b.length - 1;
+        int size = Integer.highestOneBit(len);
+        if (size < len) {
+            size <<= 1;
+        }
+        double[] re = new double[size];
+        double[] im = new double[size];
+        // Ghép hai dãy thực vào một FFT phức: x = a + i*b
+        System.arraycopy(a, 0, re, 0, a.length);
+        System.arraycopy(b, 0, im, 0, b.length);
+        fft(re, im, false);
+        // X[k]^2 = A^2 - B^2 + 2iAB, và A*B = (X[k]^2 - conj(X[-k])^2) / 4i
+        double[] pr = new double[size];
+        double[] pi = new double[size];
+        for (int k = 0; k < size; k++) {
+            int nk = (size - k) & (size - 1);
+            double xr = re[k], xi = im[k];
+            double yr = re[nk], yi = -im[nk];
+            double sr = xr * xr - xi * xi - (yr * yr - yi * yi);
+            double si = 2 * xr * xi - 2 * yr * yi;
+            pr[k] = si / 4;
+            pi[k] = -sr / 4;
+        }
+        fft(pr, pi, true);
+        double[] out = new double[len];
+        double max = 0;
+        for (int i = 0; i < len; i++) {
+            out[i] = pr[i];
+            max = Math.max(max, out[i]);
+        }
+        double floor = max * 1e-15;
+        for (int i = 0; i < len; i++) {
+            if (out[i] < floor) {
+                out[i] = 0;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * FFT radix-2 lặp tại chỗ; inverse = true thì chia cho n.
+     */
+    private static void fft(double[] re, double[] im, boolean inverse) {
+        int n = re.length;
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+        for (int len = 2; len <= n; len <<= 1) {
+            double ang = 2 * Math.PI / len * (inverse ? 1 : -1);
+            int half = len >> 1;
+            for (int k = 0; k < half; k++) {
+                double wr = Math.cos(ang * k);
+                double wi = Math.sin(ang * k);
+                for (int i = k; i < n; i += len) {
+                    int j = i + half;
+                    double xr = re[j] * wr - im[j] * wi;
+                    double xi = re[j] * wi + im[j] * wr;
+                    re[j] = re[i] - xr;
+                    im[j] = im[i] - xi;
+                    re[i] += xr;
+                    im[i] += xi;
+                }
+            }
+        }
+        if (inverse) {
+            for (int i = 0; i < n; i++) {
+                re[i] /= n;
+                im[i] /= n;
+            }
+        }
+    }
+
+    private static void checkRange(long range) {
+        if (range > MAX_RANGE) {
+            throw new IllegalArgumentException("Khoảng giá trị của phân phối quá lớn: " + range);
+        }
+    }
+
+    /**
+     * @return Tổng nhỏ nhất có thể
+     */
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * @return Tổng lớn nhất có thể
+     */
+    public int getMax() {
+        return min + pmf.length - 1;
+    }
+
+    /**
+     * @param total Giá trị tổng
+     * @return P(tổng == total)
+     */
+    public double probability(int total) {
+        long i = (long) total - min;
+        return (i < 0 || i >= pmf.length) ? 0 : pmf[(int) i];
+    }
+
+    /**
+     * @param total Giá trị tổng
+     * @return P(tổng <= total)
+     */
+    public double probabilityAtMost(int total) {
+        long i = (long) total - min;
+        if (i < 0) {
+            return 0;
+        }
+        return (i >= pmf.length) ? 1 : Math.min(1, cdf[(int) i]);
+    }
+
+    /**
+     * Tính bằng tổng phần đuôi (không phải 1 - CDF) để giữ độ chính xác khi xác suất rất nhỏ.
+     *
+     * @param total Giá trị tổng
+     * @return P(tổng >= total)
+     */
+    public double probabilityAtLeast(int total) {
+        long i = (long) total - min;
+        if (i <= 0) {
+            return 1;
+        }
+        if (i >= pmf.length) {
+            return 0;
+        }
+        double tail = 0;
+        for (int j = pmf.length - 1; j >= i; j--) {
+            tail += pmf[j];
+        }
+        return Math.min(1, tail);
+    }
+
+    /**
+     * @param p Xác suất trong [0, 1]
+     * @return Tổng nhỏ nhất t sao cho P(tổng <= t) >= p
+     * @throws IllegalArgumentException nếu p nằm ngoài [0, 1]
+     */
+    public int percentile(double p) {
+        if (!(p >= 0 && p <= 1)) {
+            throw new IllegalArgumentException("Xác suất phải nằm trong [0, 1]");
+        }
+        double target = p * cdf[cdf.length - 1];
+        int lo = 0, hi = cdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cdf[mid] >= target) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return min + lo;
+    }
+
+    /**
+     * @return Kỳ vọng của tổng
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return Phương sai của tổng
+     */
+    public double getVariance() {
+        return variance;
+    }
+
+    /**
+     * @return Độ lệch chuẩn của tổng
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(variance);
+    }
+
+    /**
+     * @return Bản sao mảng xác suất, phần tử 0 ứng với getMin()
+     */
+    public double[] toArray() {
+        return pmf.clone();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%d..%d] mean=%.4f sd=%.4f median=%d",
+                getMin(), getMax(), mean, getStandardDeviation(), percentile(0.5));
+    }
+}
@@ -0,0 +1,550 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Cây cú pháp (AST) trung gian giữa văn bản và DieRoll / DiceSum.
+ *
+ * DiceParser dựng cây này, optimize() rút gọn nó, rồi lower() sinh ra kế hoạch tung:
+ *   Program  "a ; b ; c"     các phần phân cách bởi ';'
+ *   Repeat   "4x a"          a được tung 4 lần
+ *   Sum      "a & b & c"     cộng các số hạng
+ *   Dice     "NdS+B"         lá, có thể kèm phép biến đổi ("4d6kh3", "3d6!", "2d20r1", "10d10>=7")
+ *
+ * Các nút là bất biến và có equals / hashCode theo cấu trúc, nên có thể dùng làm khoá cache
+ * hoặc để so sánh hai biểu thức.
+ */
+public abstract class DiceExpr {
+
+    DiceExpr() {
+    }
+
+    /**
+     * @return Cây tương đương đã rút gọn (có thể là chính nó)
+     */
+    public abstract DiceExpr optimize();
+
+    /**
+     * Thêm các DieRoll của nút này vào kế hoạch (Repeat thêm nhiều lần, Program thêm từng phần).
+     */
+    abstract void lowerInto(List<DieRoll> out, Map<DiceExpr, DieRoll> shared);
+
+    /**
+     * Số xúc xắc lớn nhất của một lá Dice trong cây.
+     */
+    abstract int maxDice();
+
+    /**
+     * Số lần lặp "Nx" lớn nhất trong cây, 0 nếu không có Repeat.
+     */
+    int maxRepeat() {
+        return 0;
+    }
+
+    /**
+     * @return Kế hoạch tung tương ứng với cây này, theo thứ tự
+     */
+    public List<DieRoll> lower() {
+        List<DieRoll> out = new ArrayList<>();
+        lowerInto(out, new HashMap<>());
+        return out;
+    }
+
+    /**
+     * Phép biến đổi của một lá Dice, áp dụng trước điểm thưởng.
+     */
+    public enum Op {
+        /** "NdS": tổng các mặt. */
+        NONE,
+        /** "NdSkhK": giữ K mặt cao nhất (KeepDieRoll). */
+        KEEP_HIGHEST,
+        /** "NdSklK": giữ K mặt thấp nhất (KeepDieRoll). */
+        KEEP_LOWEST,
+        /** "NdS!": xúc xắc nổ (ExplodingDieRoll). */
+        EXPLODE,
+        /** "NdSrT": tung lại các mặt không vượt quá T (RerollDieRoll). */
+        REROLL,
+        /** "NdS>=T": đếm số mặt không nhỏ hơn T (SuccessDieRoll). */
+        SUCCESS
+    }
+
+    /**
+     * Nút sinh ra đúng một DieRoll (Dice hoặc Sum); chỉ các nút này làm thân của Repeat được.
+     */
+    public abstract static class Term extends DiceExpr {
+
+        Term() {
+        }
+
+        @Override
+        public abstract Term optimize();
+
+        /**
+         * Sinh DieRoll cho nút này; các cây con bằng nhau dùng chung một DieRoll (lấy từ shared).
+         */
+        abstract DieRoll lower(Map<DiceExpr, DieRoll> shared);
+
+        @Override
+        void lowerInto(List<DieRoll> out, Map<DiceExpr, DieRoll> shared) {
+            out.add(lower(shared));
+        }
+    }
+
+    /**
+     * Lá "NdS+B", có thể kèm một phép biến đổi.
+     */
+    public static final class Dice extends Term {
+        private final int count;
+        private final int sides;
+        private final Op op;
+        private final int arg;
+        private final int bonus;
+
+        /**
+         * @param count Số xúc xắc, lớn hơn 0
+         * @param sides Số mặt, lớn hơn 0
+         * @param bonus Điểm thưởng
+         * @throws IllegalArgumentException nếu count hoặc sides nhỏ hơn 1
+         */
+        public Dice(int count, int sides, int bonus) {
+            this(count, sides, Op.NONE, 0, bonus);
+        }
+
+        /**
+         * @param count Số xúc xắc, lớn hơn 0
+         * @param sides Số mặt, lớn hơn 0
+         * @param op Phép biến đổi
+         * @param arg Tham số của phép biến đổi (K, T); bỏ qua với NONE và EXPLODE
+         * @param bonus Điểm thưởng
+         * @throws IllegalArgumentException nếu tham số không hợp lệ cho phép biến đổi
+         */
+        public Dice(int count, int sides, Op op, int arg, int bonus) {
+            if (count < 1 || sides < 1) {
+                throw new IllegalArgumentException("Số xúc xắc và số mặt phải lớn hơn 0");
+            }
+            if (op == null) {
+                throw new IllegalArgumentException("Op không được null");
+            }
+            switch (op) {
+                case KEEP_HIGHEST:
+                case KEEP_LOWEST:
+                    if (arg < 1 || arg > count) {
+                        throw new IllegalArgumentException("Số xúc xắc giữ lại phải từ 1 đến " + count);
+                    }
+                    break;
+                case EXPLODE:
+                    if (sides < 2 || (long) sides * (ExplodingDieRoll.MAX_EXPLOSIONS + 1) > Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException("Số mặt không hợp lệ cho xúc xắc nổ");
+                    }
+                    arg = 0;
+                    break;
+                case REROLL:
+                    if (arg < 1 || arg >= sides) {
+                        throw new IllegalArgumentException("Ngưỡng tung lại phải từ 1 đến " + (sides - 1));
+                    }
+                    break;
+                case SUCCESS:
+                    if (arg < 1 || arg > sides) {
+                        throw new IllegalArgumentException("Ngưỡng thành công phải từ 1 đến " + sides);
+                    }
+                    break;
+                default:
+                    arg = 0;
+                    break;
+            }
+            this.count = count;
+            this.sides = sides;
+            this.op = op;
+            this.arg = arg;
+            this.bonus = bonus;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getSides() {
+            return sides;
+        }
+
+        public Op getOp() {
+            return op;
+        }
+
+        public int getArg() {
+            return arg;
+        }
+
+        public int getBonus() {
+            return bonus;
+        }
+
+        @Override
+        int maxDice() {
+            return count;
+        }
+
+        Dice withBonus(int b) {
+            return (b == bonus) ? this : new Dice(count, sides, op, arg, b);
+        }
+
+        @Override
+        public Dice optimize() {
+            return this;
+        }
+
+        @Override
+        DieRoll lower(Map<DiceExpr, DieRoll> shared) {
+            return shared.computeIfAbsent(this, k -> toDieRoll());
+        }
+
+        private DieRoll toDieRoll() {
+            switch (op) {
+                case KEEP_HIGHEST:
+                    return new KeepDieRoll(count, sides, arg, true, bonus);
+                case KEEP_LOWEST:
+                    return new KeepDieRoll(count, sides, arg, false, bonus);
+                case EXPLODE:
+                    return new ExplodingDieRoll(count, sides, bonus);
+                case REROLL:
+                    return new RerollDieRoll(count, sides, arg, bonus);
+                case SUCCESS:
+                    return new SuccessDieRoll(count, sides, arg, bonus);
+                default:
+                    return DieRoll.of(count, sides, bonus);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Dice)) {
+                return false;
+            }
+            Dice d = (Dice) o;
+            return count == d.count && sides == d.sides && op == d.op && arg == d.arg && bonus == d.bonus;
+        }
+
+        @Override
+        public int hashCode() {
+            return (((count * 31 + sides) * 31 + op.ordinal()) * 31 + arg) * 31 + bonus;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(count).append('d').append(sides);
+            switch (op) {
+                case KEEP_HIGHEST:
+                    sb.append("kh").append(arg);
+                    break;
+                case KEEP_LOWEST:
+                    sb.append("kl").append(arg);
+                    break;
+                case EXPLODE:
+                    sb.append('!');
+                    break;
+                case REROLL:
+                    sb.append('r').append(arg);
+                    break;
+                case SUCCESS:
+                    sb.append(">=").append(arg);
+                    break;
+                default:
+                    break;
+            }
+            if (bonus > 0) {
+                sb.append('+').append(bonus);
+            } else if (bonus < 0) {
+                sb.append(bonus);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Tổng "a & b & ...", mỗi số hạng là một Dice.
+     */
+    public static final class Sum extends Term {
+        private final List<Dice> terms;
+
+        /**
+         * @param terms Các số hạng, ít nhất một
+         * @throws IllegalArgumentException nếu danh sách rỗng hoặc chứa null
+         */
+        public Sum(List<Dice> terms) {
+            if (terms == null || terms.isEmpty() || terms.contains(null)) {
+                throw new IllegalArgumentException("Tổng cần ít nhất một số hạng khác null");
+            }
+            this.terms = Collections.unmodifiableList(new ArrayList<>(terms));
+        }
+
+        public List<Dice> getTerms() {
+            return terms;
+        }
+
+        @Override
+        int maxDice() {
+            int m = 0;
+            for (Dice d : terms) {
+                m = Math.max(m, d.count);
+            }
+            return m;
+        }
+
+        /**
+         * Gộp các số hạng cùng số mặt ("2d6 & 3d6" thành "5d6", theo thứ tự xuất hiện đầu tiên)
+         * và cộng mọi điểm thưởng vào số hạng đầu. Tổng chỉ còn một số hạng thì trả về Dice.
+         * Phân phối của tổng không đổi; chỉ thứ tự các mặt trong RollResult có thể khác.
+         * Số hạng có phép biến đổi ("4d6kh3") không gộp được, chỉ chuyển điểm thưởng; phép gộp
+         * nào làm tràn int cũng bị bỏ qua.
+         */
+        @Override
+        public Term optimize() {
+            Map<Integer, Integer> counts = new LinkedHashMap<>();
+            List<Dice> unmerged = new ArrayList<>();
+            long bonus = 0;
+            for (Dice d : terms) {
+                bonus += d.bonus;
+                Integer prev = counts.get(d.sides);
+                if (d.op != Op.NONE) {
+                    unmerged.add(d.withBonus(0));
+                } else if (prev == null) {
+                    counts.put(d.sides, d.count);
+                } else if ((long) prev + d.count <= Integer.MAX_VALUE) {
+                    counts.put(d.sides, prev + d.count);
+                } else {
+                    unmerged.add(new Dice(d.count, d.sides, 0));
+                }
+            }
+            if (bonus != (int) bonus) {
+                return this;
+            }
+            List<Dice> out = new ArrayList<>(counts.size() + unmerged.size());
+            for (Map.Entry<Integer, Integer> e : counts.entrySet()) {
+                out.add(new Dice(e.getValue(), e.getKey(), 0));
+            }
+            out.addAll(unmerged);
+            out.set(0, out.get(0).withBonus((int) bonus));
+            if (out.size() == 1) {
+                return out.get(0);
+            }
+            return out.equals(terms) ? this : new Sum(out);
+        }
+
+        @Override
+        DieRoll lower(Map<DiceExpr, DieRoll> shared) {
+            DieRoll existing = shared.get(this);
+            if (existing != null) {
+                return existing;
+            }
+            List<DieRoll> rolls = new ArrayList<>(terms.size());
+            for (Dice d : terms) {
+                rolls.add(d.lower(shared));
+            }
+            DieRoll sum = new DiceSum(rolls);
+            shared.put(this, sum);
+            return sum;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof Sum) && terms.equals(((Sum) o).terms);
+        }
+
+        @Override
+        public int hashCode() {
+            return terms.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Dice d : terms) {
+                if (sb.length() > 0) {
+                    sb.append(" & ");
+                }
+                sb.append(d);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * "Nx a": a được tung N lần độc lập, dùng chung một DieRoll.
+     */
+    public static final class Repeat extends DiceExpr {
+        private final int times;
+        private final Term body;
+
+        /**
+         * @param times Số lần lặp, không âm
+         * @param body Biểu thức được lặp (Dice hoặc Sum)
+         */
+        public Repeat(int times, Term body) {
+            if (times < 0 || body == null) {
+                throw new IllegalArgumentException("Repeat cần số lần không âm và một Dice / Sum");
+            }
+            this.times = times;
+            this.body = body;
+        }
+
+        public int getTimes() {
+            return times;
+        }
+
+        public Term getBody() {
+            return body;
+        }
+
+        @Override
+        int maxDice() {
+            return body.maxDice();
+        }
+
+        @Override
+        int maxRepeat() {
+            return times;
+        }
+
+        @Override
+        public DiceExpr optimize() {
+            Term b = body.optimize();
+            if (times == 1) {
+                return b;
+            }
+            return (b == body) ? this : new Repeat(times, b);
+        }
+
+        @Override
+        void lowerInto(List<DieRoll> out, Map<DiceExpr, DieRoll> shared) {
+            DieRoll dr = body.lower(shared);
+            for (int i = 0; i < times; i++) {
+                out.add(dr);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Repeat)) {
+                return false;
+            }
+            Repeat r = (Repeat) o;
+            return times == r.times && body.equals(r.body);
+        }
+
+        @Override
+        public int hashCode() {
+            return times * 31 + body.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return times + "x" + body;
+        }
+    }
+
+    /**
+     * Các phần phân cách bởi ';'.
+     */
+    public static final class Program extends DiceExpr {
+        private final List<DiceExpr> parts;
+
+        /**
+         * @param parts Các phần (Dice, Sum hoặc Repeat), ít nhất một
+         */
+        public Program(List<DiceExpr> parts) {
+            if (parts == null || parts.isEmpty() || parts.contains(null)) {
+                throw new IllegalArgumentException("Biểu thức cần ít nhất một phần khác null");
+            }
+            this.parts = Collections.unmodifiableList(new ArrayList<>(parts));
+        }
+
+        public List<DiceExpr> getParts() {
+            return parts;
+        }
+
+        @Override
+        int maxDice() {
+            int m = 0;
+            for (DiceExpr p : parts) {
+                m = Math.max(m, p.maxDice());
+            }
+            return m;
+        }
+
+        @Override
+        int maxRepeat() {
+            int m = 0;
+            for (DiceExpr p : parts) {
+                m = Math.max(m, p.maxRepeat());
+            }
+            return m;
+        }
+
+        @Override
+        public DiceExpr optimize() {
+            List<DiceExpr> out = new ArrayList<>(parts.size());
+            boolean changed = false;
+            for (DiceExpr p : parts) {
+                DiceExpr o = p.optimize();
+                changed |= (o != p);
+                out.add(o);
+            }
+            return changed ? new Program(out) : this;
+        }
+
+        @Override
+        void lowerInto(List<DieRoll> out, Map<DiceExpr, DieRoll> shared) {
+            for (DiceExpr p : parts) {
+                p.lowerInto(out, shared);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof Program) && parts.equals(((Program) o).parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(parts);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (DiceExpr p : parts) {
+                if (sb.length() > 0) {
+                    sb.append(" ; ");
+                }
+                sb.append(p);
+            }
+            return sb.toString();
+        }
+    }
+}
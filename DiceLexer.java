@@ -0,0 +1,203 @@
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Bộ tách token cho biểu thức xúc xắc, thay thế cho DiceParser.StringStream.
+ *
+ * Lexer đọc trực tiếp CharSequence qua một con trỏ kiểu int: không xoá ký tự,
+ * không sao chép chuỗi, không tạo đối tượng cho mỗi token. Token hiện tại được
+ * mô tả bằng kind()/intValue()/start(); save/restore chỉ là một số int (mark()/reset()).
+ */
+final class DiceLexer {
+
+    static final int END = 0;
+    static final int INT = 1;
+    static final int D = 2;
+    static final int X = 3;
+    static final int PLUS = 4;
+    static final int MINUS = 5;
+    static final int SEMI = 6;
+    static final int AMP = 7;
+    /** Ký tự không hợp lệ hoặc số nguyên vượt quá Integer.MAX_VALUE. */
+    static final int ERROR = 8;
+    /** "kh" hoặc "k": giữ các mặt cao nhất. */
+    static final int KH = 9;
+    /** "kl": giữ các mặt thấp nhất. */
+    static final int KL = 10;
+    static final int BANG = 11;
+    static final int R = 12;
+    static final int GE = 13;
+    static final int GT = 14;
+
+    private final CharSequence input;
+    private final int length;
+    private int pos;
+    private int kind;
+    private int value;
+    private int start;
+
+    /**
+     * @param input Biểu thức cần tách token (không phân biệt hoa thường)
+     */
+    DiceLexer(CharSequence input) {
+        this.input = input;
+        this.length = input.length();
+        reset(0);
+    }
+
+    /**
+     * @return Loại của token hiện tại
+     */
+    int kind() {
+        return kind;
+    }
+
+    /**
+     * @return Giá trị số của token hiện tại (chỉ có nghĩa khi kind() == INT)
+     */
+    int intValue() {
+        return value;
+    }
+
+    /**
+     * @return Vị trí ký tự bắt đầu token hiện tại trong input
+     */
+    int start() {
+        return start;
+    }
+
+    /**
+     * @return Vị trí có thể truyền cho reset() để quay lại token hiện tại
+     */
+    int mark() {
+        return start;
+    }
+
+    /**
+     * Quay lại vị trí đã lưu bằng mark() và đọc lại token tại đó.
+     *
+     * @param mark Vị trí trả về từ mark()
+     */
+    void reset(int mark) {
+        pos = mark;
+        advance();
+    }
+
+    /**
+     * Nếu token hiện tại có loại k thì bỏ qua nó.
+     *
+     * @param k Loại token cần kiểm tra
+     * @return true nếu token đã được tiêu thụ
+     */
+    boolean accept(int k) {
+        if (kind != k) {
+            return false;
+        }
+        advance();
+        return true;
+    }
+
+    /**
+     * Đọc token kế tiếp.
+     */
+    void advance() {
+        while (pos < length && Character.isWhitespace(input.charAt(pos))) {
+            pos++;
+        }
+        start = pos;
+        if (pos >= length) {
+            kind = END;
+            return;
+        }
+        char c = input.charAt(pos++);
+        switch (c) {
+            case 'd':
+            case 'D':
+                kind = D;
+                return;
+            case 'x':
+            case 'X':
+                kind = X;
+                return;
+            case '+':
+                kind = PLUS;
+                return;
+            case '-':
+                kind = MINUS;
+                return;
+            case ';':
+                kind = SEMI;
+                return;
+            case '&':
+                kind = AMP;
+                return;
+            case 'k':
+            case 'K':
+                kind = KH;
+                if (pos < length) {
+                    char next = input.charAt(pos);
+                    if (next == 'l' || next == 'L') {
+                        kind = KL;
+                        pos++;
+                    } else if (next == 'h' || next == 'H') {
+                        pos++;
+                    }
+                }
+                return;
+            case '!':
+                kind = BANG;
+                return;
+            case 'r':
+            case 'R':
+                kind = R;
+                return;
+            case '>':
+                kind = GT;
+                if (pos < length && input.charAt(pos) == '=') {
+                    kind = GE;
+                    pos++;
+                }
+                return;
+            default:
+                break;
+        }
+        if (c < '0' || c > '9') {
+            kind = ERROR;
+            return;
+        }
+        int n = c - '0';
+        while (pos < length) {
+            c = input.charAt(pos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            int digit = c - '0';
+            if (n > (Integer.MAX_VALUE - digit) / 10) {
+                kind = ERROR;
+                return;
+            }
+            n = n * 10 + digit;
+            pos++;
+        }
+        kind = INT;
+        value = n;
+    }
+}
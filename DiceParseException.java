@@ -0,0 +1,104 @@
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Ngoại lệ khi biểu thức xúc xắc không hợp lệ, kèm vị trí ký tự gây lỗi.
+ */
+public class DiceParseException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Loại lỗi, dùng để thống kê (RollMetrics) mà không phải so chuỗi thông báo.
+     */
+    public enum Kind {
+        /** Biểu thức kết thúc khi còn cần thêm token. */
+        UNEXPECTED_END,
+        /** Ký tự không hợp lệ hoặc số vượt quá int. */
+        INVALID_TOKEN,
+        /** Token hợp lệ nhưng sai chỗ, ví dụ thiếu 'd' hoặc thiếu số mặt. */
+        UNEXPECTED_TOKEN,
+        /** Còn ký tự thừa sau một biểu thức hoàn chỉnh. */
+        TRAILING_INPUT,
+        /** Số xúc xắc hoặc số mặt nhỏ hơn 1. */
+        OUT_OF_RANGE,
+        /** Biểu thức hợp lệ nhưng vượt giới hạn của nơi gọi (số xúc xắc, số lần lặp, tổng số mặt). */
+        LIMIT_EXCEEDED,
+        /** Không thuộc các loại trên. */
+        OTHER
+    }
+
+    private final Kind kind;
+    private final String reason;
+    private final String input;
+    private final int errorOffset;
+
+    /**
+     * @param message Mô tả lỗi
+     * @param input Biểu thức đang được phân tích
+     * @param errorOffset Vị trí ký tự (tính từ 0) nơi phân tích thất bại
+     */
+    public DiceParseException(String message, String input, int errorOffset) {
+        this(Kind.OTHER, message, input, errorOffset);
+    }
+
+    /**
+     * @param kind Loại lỗi
+     * @param message Mô tả lỗi
+     * @param input Biểu thức đang được phân tích
+     * @param errorOffset Vị trí ký tự (tính từ 0) nơi phân tích thất bại
+     */
+    public DiceParseException(Kind kind, String message, String input, int errorOffset) {
+        super(message + " (vị trí " + errorOffset + ")");
+        this.kind = (kind == null) ? Kind.OTHER : kind;
+        this.reason = message;
+        this.input = input;
+        this.errorOffset = errorOffset;
+    }
+
+    /**
+     * @return Loại lỗi
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return Mô tả lỗi, không kèm vị trí
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return Biểu thức đang được phân tích
+     */
+    public String getInput() {
+        return input;
+    }
+
+    /**
+     * @return Vị trí ký tự (tính từ 0) nơi phân tích thất bại
+     */
+    public int getErrorOffset() {
+        return errorOffset;
+    }
+}
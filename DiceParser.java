@@ -25,10 +25,11 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
  * A parser for dice expressions such as "2d6+3; d10 & 3d4".
  * 
  * ✅ CHỨC NĂNG MỚI: Logging bằng java.util.logging
- * - Ghi lại các sự kiện quan trọng khi phân tích biểu thức xúc xắc.
+ * - Ghi lại các sự kiện quan trọng khi phân tích biểu thức xúc xắc (mức FINE).
  * - Ghi log lỗi nếu input không hợp lệ.
  * 
  * 🔧 Lý do: Hỗ trợ debug, kiểm tra hoạt động parser khi tích hợp vào dự án thực tế.
+ * Parser không tự cấu hình logger/handler; việc đó thuộc về ứng dụng dùng nó.
  */
 public class DiceParser {
 
@@ -37,212 +38,371 @@ public class DiceParser {
      */
     private static final Logger logger = Logger.getLogger(DiceParser.class.getName());
 
-    static {
-        // Cấu hình đơn giản cho Logger
-        Logger rootLogger = Logger.getLogger("");
-        Handler consoleHandler = new ConsoleHandler();
-        consoleHandler.setLevel(Level.FINE);
-        rootLogger.addHandler(consoleHandler);
-        logger.setLevel(Level.FINE);
-    }
-	 /**
-     * StringStream là một lớp hỗ trợ để quản lý chuỗi đầu vào trong việc phân tích cú pháp.
-     * Nó bao gồm các phương thức để cắt bỏ khoảng trắng, lấy số nguyên, và kiểm tra các biểu thức.
+    /**
+     * Kích thước mặc định của cache biểu thức, có thể đổi bằng -Djdice.parseCache.size=N.
      */
-    private static class StringStream {
-        StringBuffer buff;
-		public StringStream(String s) {
-            buff = new StringBuffer(s);
-        }
-		private void munchWhiteSpace() {
-            int index = 0;
-            char curr;
-            while (index < buff.length()) {
-                curr = buff.charAt(index);
-                if (!Character.isWhitespace(curr))
-                    break;
-                index++;
-            }
-            buff = buff.delete(0, index);
-        }
-		public boolean isEmpty() {
-            munchWhiteSpace();
-            return buff.toString().equals("");
-        }
+    private static final int DEFAULT_CACHE_SIZE = Integer.getInteger("jdice.parseCache.size", 1024);
 
-        public Integer getInt() {
-            return readInt();
-        }
-		public Integer readInt() {
-            int index = 0;
-            char curr;
-            munchWhiteSpace();
-            while (index < buff.length()) {
-                curr = buff.charAt(index);
-                if (!Character.isDigit(curr))
-                    break;
-                index++;
-            }
-            try {
-                Integer ans = Integer.parseInt(buff.substring(0, index));
-                buff = buff.delete(0, index);
-                return ans;
-            } catch (Exception e) {
-                return null;
+    /**
+     * Cache dùng chung giữa các lần gọi parseRoll / compile.
+     */
+    private static final ParseCache cache = new ParseCache(DEFAULT_CACHE_SIZE);
+
+    /**
+     * Chạy DiceExpr.optimize() trước khi sinh kế hoạch tung; tắt bằng -Djdice.parser.optimize=false
+     * nếu cần giữ nguyên thứ tự số hạng như khi viết (ví dụ để so kết quả tung theo seed cũ).
+     */
+    private static final boolean OPTIMIZE =
+            Boolean.parseBoolean(System.getProperty("jdice.parser.optimize", "true"));
+		/**
+     * Parses a full dice expression with optional ";" separated parts.
+     * 
+     * @param input Chuỗi biểu thức xúc xắc (ví dụ: "2d6+3; d10 & 3d4")
+     * @return Danh sách các DieRoll đã phân tích thành công hoặc null nếu lỗi.
+     */
+    public static Vector<DieRoll> parseRoll(String input) {
+        CompiledRoll compiled = compile(input);
+        return (compiled == null) ? null : compiled.toVector();
+	}
+
+    /**
+     * Phân tích biểu thức xúc xắc thành một CompiledRoll bất biến, có dùng cache.
+     * Lần gọi lặp lại với cùng biểu thức chỉ tốn một lần tra cache.
+     *
+     * @param input Chuỗi biểu thức xúc xắc (ví dụ: "2d6+3; d10 & 3d4")
+     * @return CompiledRoll dùng chung, hoặc null nếu biểu thức lỗi
+     */
+    public static CompiledRoll compile(String input) {
+        try {
+            return parse(input);
+        } catch (DiceParseException e) {
+            if (logger.isLoggable(Level.WARNING)) {
+                logger.warning("Failed to fully parse input: " + input + " - " + e.getMessage());
             }
+            return null;
         }
-		public Integer readSgnInt() {
-            munchWhiteSpace();
-            StringStream state = save();
-            if (checkAndEat("+")) {
-                Integer ans = readInt();
-                if (ans != null)
-                    return ans;
-                restore(state);
-                return null;
+    }
+
+    /**
+     * Giống compile() nhưng báo lỗi bằng ngoại lệ kèm vị trí ký tự gây lỗi.
+     *
+     * Bộ phân tích chạy bằng vòng lặp (không đệ quy theo số đoạn ';' hay số hạng '&'),
+     * nên xử lý được các script rất dài với thời gian tuyến tính và độ sâu stack cố định.
+     *
+     * @param input Chuỗi biểu thức xúc xắc
+     * @return CompiledRoll dùng chung
+     * @throws DiceParseException nếu biểu thức không hợp lệ; getErrorOffset() tính theo input gốc
+     */
+    public static CompiledRoll parse(String input) {
+        return parse(input, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Giống parse(String) nhưng từ chối số hạng có nhiều hơn maxDice xúc xắc và phép lặp "Nx"
+     * với N lớn hơn maxRepeat. Giới hạn được kiểm tra ngay khi phân tích, trước khi sinh kế hoạch
+     * tung, nên "1000000000x1d6" bị từ chối mà không cấp phát gì; biểu thức đã có trong cache chỉ
+     * cần so với kích thước lưu trong CompiledRoll, không phân tích lại.
+     *
+     * @param input Chuỗi biểu thức xúc xắc
+     * @param maxDice Số xúc xắc tối đa của một số hạng
+     * @param maxRepeat Số lần lặp "Nx" tối đa
+     * @return CompiledRoll dùng chung
+     * @throws DiceParseException nếu biểu thức không hợp lệ, hoặc LIMIT_EXCEEDED tại vị trí của số
+     *         vượt giới hạn
+     */
+    public static CompiledRoll parse(String input, int maxDice, int maxRepeat) {
+        try {
+            String key = normalize(input);
+            CompiledRoll plan = cache.get(key, k -> compileUncached(k, maxDice, maxRepeat));
+            if (plan.getMaxDice() > maxDice || plan.getMaxRepeat() > maxRepeat) {
+                // Kế hoạch trong cache được dựng với giới hạn rộng hơn: phân tích lại chỉ để báo lỗi đúng vị trí.
+                parseRolls(new DiceLexer(key), key, maxDice, maxRepeat);
             }
-            if (checkAndEat("-")) {
-                Integer ans = readInt();
-                if (ans != null)
-                    return -ans;
-                restore(state);
-                return null;
+            return plan;
+        } catch (DiceParseException e) {
+            RollMetrics.parseFailed(e.getKind());
+            int lead = leadingWhitespace(input);
+            if (lead == 0) {
+                throw e;
             }
-            return readInt();
+            throw new DiceParseException(e.getKind(), e.getReason(), input, e.getErrorOffset() + lead);
         }
+    }
 
-        public boolean checkAndEat(String s) {
-            munchWhiteSpace();
-            if (buff.indexOf(s) == 0) {
-                buff = buff.delete(0, s.length());
-                return true;
-            }
-            return false;
-        }
+    /**
+     * @return Cache biểu thức dùng chung (để đọc thống kê hoặc đổi kích thước)
+     */
+    public static ParseCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Chuẩn hoá biểu thức làm khoá cache: bỏ khoảng trắng hai đầu và chuyển về chữ thường.
+     * Không cấp phát chuỗi mới nếu input đã ở dạng chuẩn.
+     */
+    private static String normalize(String input) {
+        return input.trim().toLowerCase(Locale.ROOT);
+    }
 
-        public StringStream save() {
-            return new StringStream(buff.toString());
+    /**
+     * Số ký tự mà String.trim() bỏ đi ở đầu chuỗi, dùng để đổi vị trí lỗi về input gốc.
+     */
+    private static int leadingWhitespace(String input) {
+        int i = 0;
+        while (i < input.length() && input.charAt(i) <= ' ') {
+            i++;
         }
+        return i;
+    }
 
-        public void restore(StringStream ss) {
-            this.buff = new StringBuffer(ss.buff);
+    /**
+     * Phân tích biểu thức thành cây cú pháp, chưa tối ưu và không qua cache.
+     * Dùng optimize() / lower() của cây để tự dựng kế hoạch tung và giữ lại dùng nhiều lần.
+     *
+     * @param input Chuỗi biểu thức xúc xắc
+     * @return Cây cú pháp (DiceExpr.Program)
+     * @throws DiceParseException nếu biểu thức không hợp lệ
+     */
+    public static DiceExpr.Program parseExpression(String input) {
+        try {
+            String normalized = normalize(input);
+            return parseRolls(new DiceLexer(normalized), normalized, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        } catch (DiceParseException e) {
+            RollMetrics.parseFailed(e.getKind());
+            int lead = leadingWhitespace(input);
+            if (lead == 0) {
+                throw e;
+            }
+            throw new DiceParseException(e.getKind(), e.getReason(), input, e.getErrorOffset() + lead);
         }
+    }
 
-        public String toString() {
-            return buff.toString();
+    private static CompiledRoll compileUncached(String input, int maxDice, int maxRepeat) {
+        long start = System.nanoTime();
+        DiceLexer lexer = new DiceLexer(input);
+        DiceExpr plan = parseRolls(lexer, input, maxDice, maxRepeat);
+        int planDice = plan.maxDice();
+        int planRepeat = plan.maxRepeat();
+        if (OPTIMIZE) {
+            plan = plan.optimize();
         }
-	}
-		/**
-     * Parses a full dice expression with optional ";" separated parts.
-     * 
-     * @param input Chuỗi biểu thức xúc xắc (ví dụ: "2d6+3; d10 & 3d4")
-     * @return Danh sách các DieRoll đã phân tích thành công hoặc null nếu lỗi.
-     */
-    public static Vector<DieRoll> parseRoll(String input) {
-        logger.fine("Parsing input: " + input);
-        StringStream stream = new StringStream(input.toLowerCase());
-        Vector<DieRoll> result = parseRollRecursive(stream, new Vector<>());
-        if (stream.isEmpty()) {
-            logger.fine("Successfully parsed: " + input);
-            return result;
-        } else {
-            logger.warning("Failed to fully parse input: " + input);
-            return null;
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Successfully parsed: " + input + " -> " + plan);
         }
-	}
+        CompiledRoll compiled = new CompiledRoll(input, plan.lower(), planDice, planRepeat);
+        RollMetrics.parsed(System.nanoTime() - start);
+        return compiled;
+    }
 		/**
-     * Parse phần roll của biểu thức xúc xắc, sử dụng đệ quy nếu có dấu phân cách ";"
+     * Parse toàn bộ biểu thức: các phần xúc xắc phân cách bởi ";".
      * 
-     * @param ss Chuỗi đầu vào
-     * @param v Danh sách kết quả
-     * @return Danh sách các DieRoll
+     * @param lx Lexer đang đọc biểu thức
+     * @param input Biểu thức (dùng cho thông báo lỗi)
+     * @param maxDice Số xúc xắc tối đa của một số hạng
+     * @param maxRepeat Số lần lặp "Nx" tối đa
+     * @return Cây cú pháp của toàn bộ biểu thức
+     * @throws DiceParseException nếu biểu thức không hợp lệ
      */
-    private static Vector<DieRoll> parseRollRecursive(StringStream ss, Vector<DieRoll> v) {
-        Vector<DieRoll> r = parseXDice(ss);
-        if (r == null) {
-            return null;
-        }
-        v.addAll(r);
-        if (ss.checkAndEat(";")) {
-            return parseRollRecursive(ss, v);
+    private static DiceExpr.Program parseRolls(DiceLexer lx, String input, int maxDice, int maxRepeat) {
+        List<DiceExpr> parts = new ArrayList<>();
+        do {
+            parts.add(parseXDice(lx, input, maxDice, maxRepeat));
+        } while (lx.accept(DiceLexer.SEMI));
+        if (lx.kind() != DiceLexer.END) {
+            throw unexpected(lx, input, DiceParseException.Kind.TRAILING_INPUT, "Thừa ký tự sau biểu thức");
         }
-        return v;
+        return new DiceExpr.Program(parts);
 	}
 		 /**
-     * Parse phần xúc xắc trong biểu thức, có thể có số lượng xúc xắc lặp lại (X)
+     * Parse phần xúc xắc trong biểu thức, có thể có số lượng xúc xắc lặp lại (X).
+     * "NxA" thành một nút Repeat thay vì N bản sao, nên A chỉ được dựng một lần.
      * 
-     * @param ss Chuỗi đầu vào
-     * @return Danh sách DieRoll
+     * @param lx Lexer đang đọc biểu thức
+     * @param input Biểu thức (dùng cho thông báo lỗi)
+     * @param maxDice Số xúc xắc tối đa của một số hạng
+     * @param maxRepeat Số lần lặp "Nx" tối đa
+     * @return Nút Repeat, hoặc nút của A nếu không có "Nx"
      */
-	private static Vector<DieRoll> parseXDice(StringStream ss) {
-		StringStream saved = ss.save();
-        Integer x = ss.getInt();
-        int num = (x == null) ? 1 : x;
-        if (ss.checkAndEat("x")) {
-            num = x;
-        } else {
-            ss.restore(saved);
-        }
-        DieRoll dr = parseDice(ss);
-        if (dr == null) {
-            return null;
-        }
-        Vector<DieRoll> ans = new Vector<>();
-        for (int i = 0; i < num; i++) {
-            ans.add(dr);
+	private static DiceExpr parseXDice(DiceLexer lx, String input, int maxDice, int maxRepeat) {
+		int saved = lx.mark();
+        if (lx.kind() == DiceLexer.INT) {
+            int num = lx.intValue();
+            int numStart = lx.start();
+            lx.advance();
+            if (lx.accept(DiceLexer.X)) {
+                if (num > maxRepeat) {
+                    throw new DiceParseException(DiceParseException.Kind.LIMIT_EXCEEDED,
+                            "Số lần lặp không được vượt quá " + maxRepeat, input, numStart);
+                }
+                return new DiceExpr.Repeat(num, parseDice(lx, input, maxDice));
+            }
+            lx.reset(saved);
         }
-        return ans;
+        return parseDice(lx, input, maxDice);
     }
 	/**
-	 * Parse phần dice của biểu thức xúc xắc.
+	 * Parse phần dice của biểu thức xúc xắc: một hoặc nhiều dice nối bằng '&'.
+	 * Nhiều số hạng được gom vào một nút Sum n-ngôi thay vì một chuỗi tổng lồng nhau.
      * 
-     * @param ss Chuỗi đầu vào
-     * @return DieRoll đã phân tích hoặc null nếu lỗi
+     * @param lx Lexer đang đọc biểu thức
+     * @param input Biểu thức (dùng cho thông báo lỗi)
+     * @param maxDice Số xúc xắc tối đa của một số hạng
+     * @return Nút Dice hoặc Sum
 	 */
-	private static DieRoll parseDice(StringStream ss) {
-        return parseDTail(parseDiceInner(ss), ss);
+	private static DiceExpr.Term parseDice(DiceLexer lx, String input, int maxDice) {
+        DiceExpr.Dice first = parseDiceInner(lx, input, maxDice);
+        if (lx.kind() != DiceLexer.AMP) {
+            return first;
+        }
+        List<DiceExpr.Dice> terms = new ArrayList<>();
+        terms.add(first);
+        while (lx.accept(DiceLexer.AMP)) {
+            terms.add(parseDiceInner(lx, input, maxDice));
+        }
+        return new DiceExpr.Sum(terms);
     }
 	 /**
      * Parse phần dice cơ bản trong biểu thức xúc xắc, bao gồm số xúc xắc và số mặt.
-     * @param ss Chuỗi đầu vào
-     * @return DieRoll đã phân tích hoặc null nếu lỗi
+     * Số xúc xắc có thể bỏ trống ("d6" tương đương "1d6"). Sau số mặt có thể có một phép
+     * biến đổi: "khK" / "kK" / "klK" (giữ K mặt cao / thấp nhất), "!" (nổ), "rT" (tung lại
+     * mặt không vượt quá T), ">=T" hoặc ">T" (đếm thành công).
+     * @param lx Lexer đang đọc biểu thức
+     * @param input Biểu thức (dùng cho thông báo lỗi)
+     * @param maxDice Số xúc xắc tối đa của một số hạng
+     * @return Nút Dice đã phân tích
      */
-    private static DieRoll parseDiceInner(StringStream ss) {
-		Integer num = ss.getInt();
-		if (num == null) {
-			return null;  
-		}
-        int ndice = (num == null) ? 1 : num;
-        if (ss.checkAndEat("d")) {
-            num = ss.getInt();
-            if (num == null) {
-                return null;
+    private static DiceExpr.Dice parseDiceInner(DiceLexer lx, String input, int maxDice) {
+        int ndice = 1;
+        if (lx.kind() == DiceLexer.INT) {
+            if (lx.intValue() < 1) {
+                throw new DiceParseException(DiceParseException.Kind.OUT_OF_RANGE, "Số xúc xắc phải lớn hơn 0",
+                        input, lx.start());
             }
-            int dsides = num;
-            num = ss.readSgnInt();
-            int bonus = (num == null) ? 0 : num;
-            return new DieRoll(ndice, dsides, bonus);
-        } else {
-            return null;
+            if (lx.intValue() > maxDice) {
+                throw new DiceParseException(DiceParseException.Kind.LIMIT_EXCEEDED,
+                        "Số xúc xắc của một số hạng không được vượt quá " + maxDice, input, lx.start());
+            }
+            ndice = lx.intValue();
+            lx.advance();
+        }
+        if (!lx.accept(DiceLexer.D)) {
+            throw unexpected(lx, input, DiceParseException.Kind.UNEXPECTED_TOKEN, "Thiếu 'd'");
         }
+        if (lx.kind() != DiceLexer.INT) {
+            throw unexpected(lx, input, DiceParseException.Kind.UNEXPECTED_TOKEN, "Thiếu số mặt sau 'd'");
+        }
+        if (lx.intValue() < 1) {
+            throw new DiceParseException(DiceParseException.Kind.OUT_OF_RANGE, "Số mặt phải lớn hơn 0",
+                    input, lx.start());
+        }
+        int dsides = lx.intValue();
+        lx.advance();
+        DiceExpr.Op op = DiceExpr.Op.NONE;
+        int arg = 0;
+        int opStart = lx.start();
+        switch (lx.kind()) {
+            case DiceLexer.KH:
+            case DiceLexer.KL:
+                op = (lx.kind() == DiceLexer.KH) ? DiceExpr.Op.KEEP_HIGHEST : DiceExpr.Op.KEEP_LOWEST;
+                lx.advance();
+                opStart = lx.start();
+                arg = readOperand(lx, input, "Thiếu số xúc xắc giữ lại sau 'k'");
+                if (arg < 1 || arg > ndice) {
+                    throw new DiceParseException(DiceParseException.Kind.OUT_OF_RANGE,
+                            "Số xúc xắc giữ lại phải từ 1 đến " + ndice, input, opStart);
+                }
+                break;
+            case DiceLexer.BANG:
+                op = DiceExpr.Op.EXPLODE;
+                if (dsides < 2 || (long) dsides * (ExplodingDieRoll.MAX_EXPLOSIONS + 1) > Integer.MAX_VALUE) {
+                    throw new DiceParseException(DiceParseException.Kind.OUT_OF_RANGE,
+                            "Số mặt không hợp lệ cho xúc xắc nổ", input, opStart);
+                }
+                lx.advance();
+                break;
+            case DiceLexer.R:
+                op = DiceExpr.Op.REROLL;
+                lx.advance();
+                opStart = lx.start();
+                arg = readOperand(lx, input, "Thiếu ngưỡng tung lại sau 'r'");
+                if (arg < 1 || arg >= dsides) {
+                    throw new DiceParseException(DiceParseException.Kind.OUT_OF_RANGE,
+                            "Ngưỡng tung lại phải từ 1 đến " + (dsides - 1), input, opStart);
+                }
+                break;
+            case DiceLexer.GE:
+            case DiceLexer.GT:
+                op = DiceExpr.Op.SUCCESS;
+                boolean strict = lx.kind() == DiceLexer.GT;
+                lx.advance();
+                opStart = lx.start();
+                long target = readOperand(lx, input, "Thiếu ngưỡng thành công") + (strict ? 1L : 0L);
+                if (target < 1 || target > dsides) {
+                    throw new DiceParseException(DiceParseException.Kind.OUT_OF_RANGE,
+                            "Ngưỡng thành công phải từ 1 đến " + dsides, input, opStart);
+                }
+                arg = (int) target;
+                break;
+            default:
+                break;
+        }
+        int bonus = readSgnInt(lx);
+        return new DiceExpr.Dice(ndice, dsides, op, arg, bonus);
     }
-	/**
-     * Kiểm tra phần tail của biểu thức xúc xắc (sử dụng toán tử '&' nối nhiều dice)
-     * 
-     * @param r1 DieRoll đầu tiên
-     * @param ss Chuỗi đầu vào
-     * @return DieRoll đã phân tích
+    /**
+     * Đọc số nguyên bắt buộc sau một phép biến đổi ("kh3", "r1", ">=7").
      */
-    private static DieRoll parseDTail(DieRoll r1, StringStream ss) {
-        if (r1 == null) {
-            return null;
+    private static int readOperand(DiceLexer lx, String input, String expected) {
+        if (lx.kind() != DiceLexer.INT) {
+            throw unexpected(lx, input, DiceParseException.Kind.UNEXPECTED_TOKEN, expected);
         }
-        if (ss.checkAndEat("&")) {
-            DieRoll d2 = parseDice(ss);
-            return parseDTail(new DiceSum(r1, d2), ss);
-        } else {
-            return r1;
+        int v = lx.intValue();
+        lx.advance();
+        return v;
+    }
+    /**
+     * Đọc điểm thưởng có dấu tuỳ chọn sau số mặt ("+3", "- 15", "4").
+     * Nếu dấu không đi kèm số thì không tiêu thụ gì.
+     *
+     * @param lx Lexer đang đọc biểu thức
+     * @return Điểm thưởng, hoặc 0 nếu không có
+     */
+    private static int readSgnInt(DiceLexer lx) {
+        int saved = lx.mark();
+        int sign = 1;
+        if (lx.accept(DiceLexer.MINUS)) {
+            sign = -1;
+        } else if (!lx.accept(DiceLexer.PLUS) && lx.kind() != DiceLexer.INT) {
+            return 0;
+        }
+        if (lx.kind() != DiceLexer.INT) {
+            lx.reset(saved);
+            return 0;
+        }
+        int bonus = sign * lx.intValue();
+        lx.advance();
+        return bonus;
+    }
+    /**
+     * Tạo ngoại lệ cho token hiện tại, với mô tả phù hợp loại token.
+     */
+    private static DiceParseException unexpected(DiceLexer lx, String input,
+                                                 DiceParseException.Kind kind, String expected) {
+        String reason;
+        switch (lx.kind()) {
+            case DiceLexer.END:
+                kind = DiceParseException.Kind.UNEXPECTED_END;
+                reason = expected + ": biểu thức kết thúc đột ngột";
+                break;
+            case DiceLexer.ERROR:
+                kind = DiceParseException.Kind.INVALID_TOKEN;
+                reason = expected + ": ký tự không hợp lệ hoặc số quá lớn";
+                break;
+            default:
+                reason = expected;
+                break;
         }
+        return new DiceParseException(kind, reason, input, lx.start());
     }
 	 /**
      * Test method to evaluate expressions with logging and output.
@@ -256,7 +416,7 @@ public class DiceParser {
         } else {
             System.out.println("Parsing: " + input);
             for (DieRoll roll : rolls) {
-                System.out.println(roll + ": " + roll.makeRoll());
+                System.out.println(roll + ": " + roll.roll());
             }
         }
     }
@@ -270,8 +430,15 @@ public class DiceParser {
         test("d6+5");
         test("4X3d8-5");
         test("12d10+5 & 4d6+2");
+        test("2d6 & d8+1 & 3d6-2");
         test("d6 ; 2d4+3");
         test("4d6+3 ; 8d12 -15 ; 9d10 & 3d6 & 4d12 +17");
+        test("4d6kh3");
+        test("2d20kl1+5");
+        test("3d6!");
+        test("2d20r1 & 10d10>=7");
+        test("8d6>4 ; 4d6k4");
+        test("4d6k5");
         test("4d4d4");
         test("hi");
     }
@@ -1,15 +1,28 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import java.util.random.RandomGenerator;
 
 /**quoccuong
- * Lớp DiceSum mở rộng từ DieRoll, đại diện cho phép cộng kết quả của hai lần tung xúc xắc.
- * Lớp này sử dụng hai đối tượng DieRoll r1 và r2, và cho phép kết hợp kết quả.
+ * Lớp DiceSum mở rộng từ DieRoll, đại diện cho phép cộng kết quả của nhiều lần tung xúc xắc
+ * (các số hạng nối bằng '&').
+ *
+ * Các DiceSum lồng nhau được làm phẳng thành một mảng số hạng khi khởi tạo, nên
+ * "a & b & c & ..." được tung trong một vòng lặp, ghi thẳng vào một RollResult duy nhất:
+ * chi phí tuyến tính theo số số hạng, không tạo RollResult trung gian, không đệ quy.
  */
 public class DiceSum extends DieRoll {
     private static final Logger logger = Logger.getLogger(DiceSum.class.getName());
 
-    private final DieRoll r1;
-    private final DieRoll r2;
+    private final DieRoll[] terms;
+    private final List<DieRoll> view;
+    private final int faceHint;
+    private final int minTotal;
+    private final int maxTotal;
 
     /**
      * Constructor khởi tạo DiceSum từ hai đối tượng DieRoll.
@@ -19,56 +32,232 @@ public class DiceSum extends DieRoll {
      * @throws IllegalArgumentException nếu r1 hoặc r2 null
      */
     public DiceSum(DieRoll r1, DieRoll r2) {
-        super(0, 0, 0); // Thông tin không dùng, vì DiceSum dùng composition
+        this(Arrays.asList(r1, r2));
+    }
+
+    /**
+     * Constructor khởi tạo DiceSum từ danh sách số hạng; các DiceSum con được làm phẳng.
+     *
+     * @param terms Các số hạng theo thứ tự, ít nhất một phần tử, không chứa null
+     * @throws IllegalArgumentException nếu danh sách rỗng hoặc chứa null
+     */
+    public DiceSum(List<? extends DieRoll> terms) {
+        super(); // DiceSum dùng composition; super(0, 0, 0) bị DieRoll từ chối
 
-        if (r1 == null || r2 == null) {
-            logger.severe("One or both DieRoll objects are null.");
+        if (terms == null || terms.isEmpty() || terms.contains(null)) {
+            logger.severe("DiceSum requires at least one non-null DieRoll.");
             throw new IllegalArgumentException("DieRoll parameters cannot be null.");
         }
 
-        this.r1 = r1;
-        this.r2 = r2;
+        List<DieRoll> flat = new ArrayList<>(terms.size());
+        for (DieRoll t : terms) {
+            if (t instanceof DiceSum) {
+                flat.addAll(Arrays.asList(((DiceSum) t).terms));
+            } else {
+                flat.add(t);
+            }
+        }
+        this.terms = flat.toArray(new DieRoll[0]);
+        this.view = Collections.unmodifiableList(Arrays.asList(this.terms));
+
+        int hint = 0;
+        int min = 0;
+        int max = 0;
+        for (DieRoll t : this.terms) {
+            hint += t.getNumDice();
+            min += t.getMinTotal();
+            max += t.getMaxTotal();
+        }
+        this.faceHint = hint;
+        this.minTotal = min;
+        this.maxTotal = max;
 
-        logger.info("DiceSum initialized with two DieRoll objects.");
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("DiceSum initialized with " + this.terms.length + " DieRoll objects.");
+        }
     }
 
     /**
-     * Thực hiện hai lần tung xúc xắc và kết hợp kết quả.
+     * Tung tất cả số hạng vào một RollResult.
      *
-     * @return RollResult kết hợp từ r1 và r2
+     * @param random Nguồn ngẫu nhiên dùng cho mọi số hạng
+     * @return RollResult chứa các mặt của mọi số hạng, theo thứ tự
      */
     @Override
-    public RollResult roll() {
-        logger.info("makeRoll() called in DiceSum.");
+    public RollResult roll(RandomGenerator random) {
+        RollResult combined = new RollResult(0, faceHint);
+        rollInto(random, combined);
+        RollMetrics.rolled(faceHint);
+        if (RollTrace.isEnabled()) {
+            RollTrace.roll(this, combined);
+        }
+        return combined;
+    }
 
-        RollResult result1 = r1.roll();
-        logger.fine("First roll result: " + result1);
+    /**
+     * Ghi kết quả của các số hạng lần lượt vào cùng một RollResult.
+     *
+     * @param random Nguồn ngẫu nhiên
+     * @param into RollResult đích
+     */
+    @Override
+    public void rollInto(RandomGenerator random, RollResult into) {
+        for (DieRoll t : terms) {
+            t.rollInto(random, into);
+        }
+    }
 
-        RollResult result2 = r2.roll();
-        logger.fine("Second roll result: " + result2);
+    /**
+     * Các số hạng được đánh số xúc xắc liên tiếp nhau, nên mặt thứ i của cả tổng chỉ phụ thuộc
+     * (seed, rollId, i).
+     */
+    @Override
+    int rollSeededInto(long key, long gamma, int firstDie, RollResult into) {
+        int next = firstDie;
+        for (DieRoll t : terms) {
+            next = t.rollSeededInto(key, gamma, next, into);
+        }
+        return next;
+    }
 
-        RollResult combined = result1.andThen(result2);
-        logger.info("Combined roll result: " + combined);
+    /**
+     * Chuyển cho số hạng chứa dieIndex; chỉ số xúc xắc của các số hạng nối tiếp nhau.
+     */
+    @Override
+    int faceAt(long key, long gamma, int dieIndex) {
+        int first = 0;
+        for (DieRoll t : terms) {
+            if (dieIndex < first + t.getNumDice()) {
+                return t.faceAt(key, gamma, dieIndex);
+            }
+            first += t.getNumDice();
+        }
+        throw new IndexOutOfBoundsException("dieIndex " + dieIndex);
+    }
 
-        return combined;
+    /**
+     * Ghi mặt của các số hạng liên tiếp nhau vào out.
+     *
+     * @param random Nguồn ngẫu nhiên
+     * @param out Mảng đích, cần ít nhất offset + tổng số xúc xắc của mọi số hạng
+     * @param offset Vị trí bắt đầu trong out
+     * @return Tổng các mặt cộng điểm thưởng của mọi số hạng
+     */
+    @Override
+    public int rollFaces(RandomGenerator random, int[] out, int offset) {
+        Objects.checkFromIndexSize(offset, faceHint, out.length);
+        int sum = 0;
+        for (DieRoll t : terms) {
+            sum += t.rollFaces(random, out, offset);
+            offset += t.getNumDice();
+        }
+        return sum;
     }
 
     /**
-     * Phương thức tiện ích: Trả về tổng điểm của hai lần tung.
+     * @param random Nguồn ngẫu nhiên
+     * @return Tổng của các số hạng, không lưu từng mặt
+     */
+    @Override
+    public int rollTotal(RandomGenerator random) {
+        int sum = 0;
+        for (DieRoll t : terms) {
+            sum += t.rollTotal(random);
+        }
+        return sum;
+    }
+
+    /**
+     * Áp dụng cùng cách tính tổng cho mọi số hạng.
+     *
+     * @param mode Cách rollTotal() tính tổng
+     * @return DiceSum mới
+     */
+    @Override
+    public DieRoll withTotalMode(TotalMode mode) {
+        List<DieRoll> copy = new ArrayList<>(terms.length);
+        for (DieRoll t : terms) {
+            copy.add(t.withTotalMode(mode));
+        }
+        return new DiceSum(copy);
+    }
+
+    /**
+     * @return Tổng số xúc xắc của mọi số hạng (số mặt rollFaces() ghi ra)
+     */
+    @Override
+    public int getNumDice() {
+        return faceHint;
+    }
+
+    @Override
+    public int getMinTotal() {
+        return minTotal;
+    }
+
+    @Override
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    /**
+     * @return Các số hạng đã làm phẳng (danh sách chỉ đọc)
+     */
+    public List<DieRoll> getTerms() {
+        return view;
+    }
+
+    /**
+     * Hai DiceSum bằng nhau khi có cùng các số hạng theo cùng thứ tự.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && Arrays.equals(terms, ((DiceSum) o).terms);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(terms);
+    }
+
+    /**
+     * @return Biểu thức dạng "2d4 & 1d6" (toString() thì có kèm một lần tung thử)
+     */
+    @Override
+    public String getExpression() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < terms.length; i++) {
+            if (i > 0) {
+                sb.append(" & ");
+            }
+            sb.append(terms[i].getExpression());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Phương thức tiện ích: Trả về tổng điểm của một lần tung.
      *
      * @return tổng điểm (int)
      */
     public int getTotalRollValue() {
-        return roll().getTotal();
+        return rollTotal(RandomSources.threadLocal());
     }
 
     /**
-     * Trả về chuỗi mô tả kết quả DiceSum bao gồm hai lần tung và tổng điểm.
+     * Trả về chuỗi mô tả kết quả DiceSum bao gồm các số hạng và tổng điểm.
      *
      * @return chuỗi mô tả
      */
     @Override
     public String toString() {
-        return "DiceSum: [" + r1.toString() + "] + [" + r2.toString() + "] => Total: " + getTotalRollValue();
+        StringBuilder sb = new StringBuilder("DiceSum: ");
+        for (int i = 0; i < terms.length; i++) {
+            if (i > 0) {
+                sb.append(" + ");
+            }
+            sb.append('[').append(terms[i]).append(']');
+        }
+        return sb.append(" => Total: ").append(getTotalRollValue()).toString();
     }
 }
@@ -1,6 +1,6 @@
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.random.RandomGenerator;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -20,14 +20,56 @@ import java.util.logging.Level;
  *   Thêm validation cho RollResult.addResult - đảm bảo giá trị tung hợp lệ (lớn hơn 0).
  *   Thêm phương thức helper getTotal trong RollResult - tính tổng các lần tung cộng điểm thưởng.
  *   Thêm toString trong RollResult - cải thiện thông báo hiển thị cho người dùng với chi tiết các lần tung, điểm thưởng, và tổng.
+ *   Bất biến và so sánh theo giá trị (equals / hashCode) - một DieRoll, hay cả một CompiledRoll,
+ *   dùng chung được giữa bao nhiêu luồng cũng được mà không cần khoá hay sao chép; DieRoll.of()
+ *   trả về bản dùng chung cho các xúc xắc thông dụng (d4 đến d100).
  */
 public class DieRoll {
+
+    /**
+     * Cách rollTotal() tính tổng khi không cần từng mặt.
+     */
+    public enum TotalMode {
+        /** Tung từng xúc xắc, O(N). Mặc định. */
+        EXACT,
+        /** Lấy mẫu từ phân phối chính xác của tổng (bảng CDF dùng chung), O(log N). */
+        DISTRIBUTION,
+        /** Xấp xỉ chuẩn có hiệu chỉnh liên tục, O(1); sai số xem getNormalErrorBound(). */
+        NORMAL,
+        /** EXACT khi N nhỏ, DISTRIBUTION khi bảng CDF vừa phải, còn lại NORMAL. */
+        AUTO
+    }
+
+    /** AUTO: tung từng xúc xắc khi số xúc xắc không vượt quá ngưỡng này. */
+    private static final int AUTO_EXACT_MAX_DICE = 32;
+
+    /** AUTO: dùng bảng CDF khi khoảng giá trị tổng không vượt quá ngưỡng này. */
+    private static final int AUTO_TABLE_MAX_RANGE = 1 << 16;
+
     private final int numDice; // Refactored: Đổi tên từ ndice
     private final int numSides; // Refactored: Đổi tên từ nsides
     private final int bonus;
-    private static final Random random = new Random(); // Refactored: Đổi tên và khai báo final
+    private final TotalMode totalMode;
+    private final double[] totalCdf; // bảng CDF dùng chung khi totalMode == DISTRIBUTION, còn lại null
     private static final Logger LOGGER = Logger.getLogger(DieRoll.class.getName()); // Logger cho lớp
 
+    /** Số mặt của các xúc xắc thông dụng được DieRoll.of() dùng chung. */
+    private static final int[] COMMON_SIDES = {4, 6, 8, 10, 12, 20, 100};
+
+    /** DieRoll.of() dùng chung các biểu thức "NdS" với N từ 1 đến COMMON_MAX_DICE. */
+    private static final int COMMON_MAX_DICE = 10;
+
+    /** COMMON[N - 1][i] là "NdS" với S = COMMON_SIDES[i]; khai báo sau LOGGER vì constructor dùng nó. */
+    private static final DieRoll[][] COMMON = new DieRoll[COMMON_MAX_DICE][COMMON_SIDES.length];
+
+    static {
+        for (int n = 1; n <= COMMON_MAX_DICE; n++) {
+            for (int i = 0; i < COMMON_SIDES.length; i++) {
+                COMMON[n - 1][i] = new DieRoll(n, COMMON_SIDES[i], 0);
+            }
+        }
+    }
+
     /**
      * Constructor tạo một lần tung xúc xắc.
      * 
@@ -37,6 +79,22 @@ public class DieRoll {
      * @throws IllegalArgumentException nếu số xúc xắc hoặc số mặt nhỏ hơn 1
      */
     public DieRoll(int numDice, int numSides, int bonus) {
+        this(numDice, numSides, bonus, TotalMode.EXACT);
+    }
+
+    /**
+     * Constructor tạo một lần tung xúc xắc với cách tính tổng cho trước.
+     * 
+     * @param numDice Số xúc xắc
+     * @param numSides Số mặt của mỗi xúc xắc
+     * @param bonus Điểm thưởng thêm vào kết quả
+     * @param totalMode Cách rollTotal() tính tổng
+     * @throws IllegalArgumentException nếu số xúc xắc hoặc số mặt nhỏ hơn 1, hoặc totalMode null
+     */
+    public DieRoll(int numDice, int numSides, int bonus, TotalMode totalMode) {
+        if (totalMode == null) {
+            throw new IllegalArgumentException("TotalMode không được null");
+        }
         if (numDice < 1 || numSides < 1) {
             LOGGER.log(Level.SEVERE, "Đầu vào không hợp lệ: numDice={0}, numSides={1}", new Object[]{numDice, numSides});
             throw new IllegalArgumentException("Số xúc xắc và số mặt phải lớn hơn 0");
@@ -44,130 +102,322 @@ public class DieRoll {
         this.numDice = numDice;
         this.numSides = numSides;
         this.bonus = bonus;
-        LOGGER.log(Level.INFO, "Khởi tạo DieRoll: {0}d{1}{2}{3}", 
-                   new Object[]{numDice, numSides, bonus >= 0 ? "+" : "", bonus});
+        this.totalMode = resolve(totalMode, numDice, numSides);
+        this.totalCdf = (this.totalMode == TotalMode.DISTRIBUTION) ? TotalSampler.cdf(numDice, numSides) : null;
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Khởi tạo DieRoll: {0}d{1}{2}{3}",
+                       new Object[]{numDice, numSides, bonus >= 0 ? "+" : "", bonus});
+        }
+    }
+
+    /**
+     * Constructor cho các lớp con tổ hợp (như DiceSum) không có numDice/numSides riêng;
+     * các lớp con này phải override roll, rollInto, rollFaces, rollSeededInto, faceAt, rollTotal
+     * và getMin/MaxTotal.
+     */
+    protected DieRoll() {
+        this.numDice = 0;
+        this.numSides = 0;
+        this.bonus = 0;
+        this.totalMode = TotalMode.EXACT;
+        this.totalCdf = null;
+    }
+
+    /**
+     * Giống new DieRoll(numDice, numSides, bonus), nhưng các xúc xắc thông dụng không có điểm
+     * thưởng ("1d20", "3d6", "2d100", ...) được lấy từ bảng dùng chung thay vì tạo mới.
+     *
+     * @param numDice Số xúc xắc
+     * @param numSides Số mặt của mỗi xúc xắc
+     * @param bonus Điểm thưởng thêm vào kết quả
+     * @return DieRoll tương ứng, có thể là một instance dùng chung
+     * @throws IllegalArgumentException nếu số xúc xắc hoặc số mặt nhỏ hơn 1
+     */
+    public static DieRoll of(int numDice, int numSides, int bonus) {
+        if (bonus == 0 && numDice >= 1 && numDice <= COMMON_MAX_DICE) {
+            int i = Arrays.binarySearch(COMMON_SIDES, numSides);
+            if (i >= 0) {
+                return COMMON[numDice - 1][i];
+            }
+        }
+        return new DieRoll(numDice, numSides, bonus);
+    }
+
+    private static TotalMode resolve(TotalMode mode, int numDice, int numSides) {
+        if (mode != TotalMode.AUTO) {
+            return mode;
+        }
+        if (numDice <= AUTO_EXACT_MAX_DICE) {
+            return TotalMode.EXACT;
+        }
+        long range = (long) numDice * (numSides - 1) + 1;
+        return (range <= AUTO_TABLE_MAX_RANGE) ? TotalMode.DISTRIBUTION : TotalMode.NORMAL;
+    }
+
+    /**
+     * Tạo bản sao với cách tính tổng khác; số xúc xắc, số mặt và điểm thưởng giữ nguyên.
+     * 
+     * @param mode Cách rollTotal() tính tổng
+     * @return DieRoll mới, hoặc chính đối tượng này nếu chế độ không đổi
+     */
+    public DieRoll withTotalMode(TotalMode mode) {
+        if (mode == totalMode) {
+            return this;
+        }
+        return new DieRoll(numDice, numSides, bonus, mode);
+    }
+
+    /**
+     * @return Cách rollTotal() tính tổng (AUTO đã được quy về một chế độ cụ thể)
+     */
+    public TotalMode getTotalMode() {
+        return totalMode;
+    }
+
+    /**
+     * Cận trên của sai số hàm phân phối khi dùng TotalMode.NORMAL (bất đẳng thức Berry–Esseen).
+     * Ví dụ 1000d6 cho khoảng 0.019, 1000000d6 cho khoảng 0.0006.
+     * 
+     * @return sup |F(x) - Φ(x)|, hoặc 0 nếu chế độ hiện tại là chính xác
+     */
+    public double getNormalErrorBound() {
+        return (totalMode == TotalMode.NORMAL) ? TotalSampler.normalErrorBound(numDice, numSides) : 0;
     }
 
     /**
-     * Thực hiện việc tung xúc xắc và trả về kết quả.
+     * Thực hiện việc tung xúc xắc với nguồn ngẫu nhiên mặc định (RandomSources.threadLocal()).
      * 
      * @return Kết quả của lần tung, chứa danh sách các giá trị ngẫu nhiên từ 1 đến numSides và điểm thưởng
      */
     public RollResult roll() {
-        LOGGER.log(Level.FINE, "Bắt đầu tung {0} xúc xắc {1} mặt", new Object[]{numDice, numSides});
-        RollResult r = new RollResult(bonus);
-        for (int i = 0; i < numDice; i++) {
-            int roll = random.nextInt(numSides) + 1;
-            r.addResult(roll);
-            LOGGER.log(Level.FINE, "Tung xúc xắc thứ {0}: kết quả = {1}", new Object[]{i + 1, roll});
+        return roll(RandomSources.threadLocal());
+    }
+
+    /**
+     * Thực hiện việc tung xúc xắc với nguồn ngẫu nhiên cho trước.
+     * Không ghi log trừ khi RollTrace đang bật.
+     * 
+     * @param random Nguồn ngẫu nhiên, xem RandomSources
+     * @return Kết quả của lần tung, chứa danh sách các giá trị ngẫu nhiên từ 1 đến numSides và điểm thưởng
+     * @throws IllegalArgumentException nếu random null
+     */
+    public RollResult roll(RandomGenerator random) {
+        if (random == null) {
+            throw new IllegalArgumentException("Nguồn ngẫu nhiên không được null");
+        }
+        RollResult r = new RollResult(0, numDice);
+        rollInto(random, r);
+        RollMetrics.rolled(numDice);
+        if (RollTrace.isEnabled()) {
+            RollTrace.roll(this, r);
         }
-        LOGGER.log(Level.INFO, "Kết quả tung: {0}, bonus: {1}", new Object[]{r.getRolls(), bonus});
         return r;
     }
 
     /**
-     * Trả về chuỗi mô tả lần tung xúc xắc, ví dụ "3d6+2" (3 xúc xắc 6 mặt, cộng 2).
+     * Tung vào một RollResult có sẵn (bộ đệm của người gọi), không cấp phát đối tượng mới.
      * 
-     * @return Chuỗi định dạng "NdS+B" hoặc "NdS-B"
+     * @param random Nguồn ngẫu nhiên
+     * @param reuse RollResult sẽ bị reset rồi ghi kết quả vào
+     * @return chính reuse
      */
-    @Override
-    public String toString() {
-        StringBuilder ans = new StringBuilder();
-        ans.append(numDice).append("d").append(numSides);
-        if (bonus > 0) {
-            ans.append("+").append(bonus);
-        } else if (bonus < 0) {
-            ans.append(bonus);
+    public RollResult roll(RandomGenerator random, RollResult reuse) {
+        reuse.reset(0);
+        rollInto(random, reuse);
+        RollMetrics.rolled(getNumDice());
+        return reuse;
+    }
+
+    /**
+     * Ghi thêm các mặt tung được và điểm thưởng vào cuối một RollResult, không reset.
+     * 
+     * @param random Nguồn ngẫu nhiên
+     * @param into RollResult đích
+     */
+    public void rollInto(RandomGenerator random, RollResult into) {
+        into.addModifier(bonus);
+        into.addFaces(random, numSides, numDice);
+    }
+
+    /**
+     * Tung tất định theo địa chỉ (seed, rollId): mặt thứ i chỉ phụ thuộc (seed, rollId, i), nên
+     * cùng tham số luôn cho cùng kết quả, bất kể luồng hay thứ tự tung (xem CounterRandom).
+     *
+     * @param seed Seed gốc
+     * @param rollId Định danh lần tung
+     * @return Kết quả của lần tung
+     */
+    public RollResult roll(long seed, long rollId) {
+        RollResult r = new RollResult(0, getNumDice());
+        rollSeededInto(CounterRandom.key(seed, rollId), CounterRandom.gamma(seed, rollId), 0, r);
+        RollMetrics.rolled(getNumDice());
+        if (RollTrace.isEnabled()) {
+            RollTrace.roll(this, r);
         }
-        String result = ans.toString();
-        LOGGER.log(Level.FINE, "Chuỗi biểu diễn DieRoll: {0}", result);
-        return result;
+        return r;
     }
-}
 
-/**
- * Lớp lưu trữ kết quả của một lần tung xúc xắc.
- */
-class RollResult {
-    private final int bonus;
-    private final List<Integer> rolls;
-    private static final Logger LOGGER = Logger.getLogger(RollResult.class.getName()); // Logger cho lớp
+    /**
+     * Tính lại đúng một mặt của roll(seed, rollId) trong O(1), không tung các mặt khác.
+     *
+     * @param seed Seed gốc
+     * @param rollId Định danh lần tung
+     * @param dieIndex Vị trí mặt, từ 0 đến roll(seed, rollId).size() - 1
+     * @return Giá trị mặt tại dieIndex
+     * @throws IndexOutOfBoundsException nếu dieIndex không hợp lệ
+     */
+    public int face(long seed, long rollId, int dieIndex) {
+        Objects.checkIndex(dieIndex, getNumDice());
+        return faceAt(CounterRandom.key(seed, rollId), CounterRandom.gamma(seed, rollId), dieIndex);
+    }
 
     /**
-     * Khởi tạo RollResult với điểm thưởng.
-     * 
-     * @param bonus Điểm thưởng
+     * Mặt của xúc xắc có chỉ số dieIndex (đánh số chung cho cả DiceSum) trong luồng (key, gamma).
+     * Lớp con có mặt không phải một lần tung đơn (nổ, tung lại) override hàm này.
      */
-    public RollResult(int bonus) {
-        this.bonus = bonus;
-        this.rolls = new ArrayList<>();
-        LOGGER.log(Level.INFO, "Khởi tạo RollResult với bonus: {0}", bonus);
+    int faceAt(long key, long gamma, int dieIndex) {
+        return CounterRandom.faceAt(key, gamma, dieIndex, numSides);
     }
 
     /**
-     * Thêm kết quả của một lần tung.
-     * 
-     * @param roll Giá trị tung được, phải lớn hơn 0
-     * @throws IllegalArgumentException nếu giá trị tung không hợp lệ (nhỏ hơn hoặc bằng 0)
+     * Ghi các mặt của lần tung tất định, đánh số từ firstDie.
+     *
+     * @return Chỉ số xúc xắc tiếp theo
      */
-    public void addResult(int roll) {
-        if (roll <= 0) {
-            LOGGER.log(Level.SEVERE, "Giá trị tung không hợp lệ: roll={0}", roll);
-            throw new IllegalArgumentException("Giá trị tung phải lớn hơn 0");
+    int rollSeededInto(long key, long gamma, int firstDie, RollResult into) {
+        into.addModifier(bonus);
+        for (int i = 0; i < numDice; i++) {
+            into.addResult(faceAt(key, gamma, firstDie + i));
         }
-        rolls.add(roll);
-        LOGGER.log(Level.FINE, "Thêm kết quả tung: {0}", roll);
+        return firstDie + numDice;
     }
 
     /**
-     * Lấy điểm thưởng.
+     * Tung numDice xúc xắc và ghi thẳng các mặt vào mảng của người gọi, không cấp phát.
+     * Dùng phép nhân-dịch không lệch của Lemire, hai mặt cho mỗi nextLong() (xem FastDice).
+     *
+     * @param random Nguồn ngẫu nhiên
+     * @param out Mảng đích, cần ít nhất offset + getNumDice() phần tử
+     * @param offset Vị trí bắt đầu trong out
+     * @return Tổng các mặt cộng điểm thưởng
+     * @throws IllegalArgumentException nếu random null
+     * @throws IndexOutOfBoundsException nếu out không đủ chỗ
+     */
+    public int rollFaces(RandomGenerator random, int[] out, int offset) {
+        if (random == null) {
+            throw new IllegalArgumentException("Nguồn ngẫu nhiên không được null");
+        }
+        Objects.checkFromIndexSize(offset, numDice, out.length);
+        return (int) FastDice.fill(random, numSides, out, offset, numDice) + bonus;
+    }
+
+    /**
+     * Chỉ tính tổng (các mặt cộng điểm thưởng), không lưu từng mặt.
+     * Thuật toán phụ thuộc getTotalMode().
      * 
-     * @return Điểm thưởng
+     * @param random Nguồn ngẫu nhiên
+     * @return Tổng của lần tung
+     */
+    public int rollTotal(RandomGenerator random) {
+        switch (totalMode) {
+            case DISTRIBUTION:
+                return TotalSampler.sampleDistribution(totalCdf, numDice, random) + bonus;
+            case NORMAL:
+                return TotalSampler.sampleNormal(numDice, numSides, random) + bonus;
+            default:
+                break;
+        }
+        return (int) FastDice.sum(random, numSides, numDice) + bonus;
+    }
+
+    /**
+     * @return Số xúc xắc
+     */
+    public int getNumDice() {
+        return numDice;
+    }
+
+    /**
+     * @return Số mặt của mỗi xúc xắc
+     */
+    public int getNumSides() {
+        return numSides;
+    }
+
+    /**
+     * @return Điểm thưởng cộng vào tổng
      */
     public int getBonus() {
         return bonus;
     }
 
     /**
-     * Lấy danh sách các lần tung.
-     * 
-     * @return Bản sao của danh sách các lần tung
+     * @return Tổng nhỏ nhất có thể của một lần tung
      */
-    public List<Integer> getRolls() {
-        List<Integer> rollsCopy = new ArrayList<>(rolls);
-        LOGGER.log(Level.FINE, "Trả về danh sách các lần tung: {0}", rollsCopy);
-        return rollsCopy;
+    public int getMinTotal() {
+        return numDice + bonus;
     }
 
     /**
-     * Tính tổng kết quả của các lần tung cộng với điểm thưởng.
-     * 
-     * @return Tổng các giá trị trong danh sách rolls cộng với bonus
+     * @return Tổng lớn nhất có thể của một lần tung
      */
-    public int getTotal() {
-        int total = rolls.stream().mapToInt(Integer::intValue).sum() + bonus;
-        LOGGER.log(Level.FINE, "Tổng kết quả tung: {0}", total);
-        return total;
+    public int getMaxTotal() {
+        return numDice * numSides + bonus;
     }
 
     /**
-     * Trả về chuỗi mô tả kết quả tung xúc xắc, bao gồm các lần tung, điểm thưởng, và tổng.
-     * 
-     * @return Chuỗi định dạng, ví dụ: "Rolls: [4, 6], Bonus: +3, Total: 13"
+     * @return Biểu thức của lần tung theo cú pháp DiceParser, ví dụ "3d6+2"
+     */
+    public String getExpression() {
+        return toString();
+    }
+
+    /**
+     * Ghi phép biến đổi sau "NdS" (ví dụ "kh3", "!"); DieRoll thường không có.
+     */
+    void appendOperator(StringBuilder sb) {
+    }
+
+    /**
+     * Hai DieRoll bằng nhau khi cùng lớp, cùng số xúc xắc, số mặt, điểm thưởng và cách tính tổng
+     * (lớp con so thêm tham số của phép biến đổi).
      */
     @Override
-    public String toString() {
-        StringBuilder result = new StringBuilder();
-        result.append("Rolls: ").append(rolls);
-        result.append(", Bonus: ").append(bonus >= 0 ? "+" : "").append(bonus);
-        result.append(", Total: ").append(getTotal());
-        String output = result.toString();
-        LOGGER.log(Level.FINE, "Chuỗi biểu diễn RollResult: {0}", output);
-        return output;
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || o.getClass() != getClass()) {
+            return false;
+        }
+        DieRoll d = (DieRoll) o;
+        return numDice == d.numDice && numSides == d.numSides && bonus == d.bonus && totalMode == d.totalMode;
     }
 
-    public RollResult andThen(RollResult result2) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'andThen'");
+    @Override
+    public int hashCode() {
+        int h = getClass().getName().hashCode();
+        h = h * 31 + numDice;
+        h = h * 31 + numSides;
+        h = h * 31 + bonus;
+        return h * 31 + totalMode.ordinal();
     }
-}
\ No newline at end of file
+
+    /**
+     * Trả về chuỗi mô tả lần tung xúc xắc, ví dụ "3d6+2" (3 xúc xắc 6 mặt, cộng 2).
+     * 
+     * @return Chuỗi định dạng "NdS+B" hoặc "NdS-B"
+     */
+    @Override
+    public String toString() {
+        StringBuilder ans = new StringBuilder();
+        ans.append(numDice).append("d").append(numSides);
+        appendOperator(ans);
+        if (bonus > 0) {
+            ans.append("+").append(bonus);
+        } else if (bonus < 0) {
+            ans.append(bonus);
+        }
+        return ans.toString();
+    }
+}
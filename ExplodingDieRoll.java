@@ -0,0 +1,141 @@
+import java.util.Objects;
+import java.util.random.RandomGenerator;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Xúc xắc nổ ("3d6!"): mỗi lần một xúc xắc ra mặt cao nhất thì tung thêm một lần nữa và cộng vào.
+ *
+ * Mỗi xúc xắc ghi một giá trị vào RollResult: tổng cả chuỗi nổ của nó. Số lần nổ của một xúc
+ * xắc bị chặn bởi MAX_EXPLOSIONS, nên vòng lặp luôn dừng và tổng lớn nhất hữu hạn (cần cho
+ * getMaxTotal() và DiceDistribution). Cả N xúc xắc được tung một lượt bằng FastDice.fill,
+ * vòng nổ chỉ chạy trên những xúc xắc ra mặt cao nhất (trung bình N / S xúc xắc).
+ *
+ * Trong lần tung tất định (seed, rollId), lần nổ thứ j của xúc xắc i dùng mặt thứ i của luồng
+ * có key dịch đi j * EXPLODE_KEY_STRIDE, nên face() vẫn tính lại được từng xúc xắc trong O(1)
+ * (cộng số lần nổ).
+ */
+public class ExplodingDieRoll extends DieRoll {
+
+    /** Số lần nổ tối đa của một xúc xắc. */
+    public static final int MAX_EXPLOSIONS = 32;
+
+    private static final long EXPLODE_KEY_STRIDE = 0x9e3779b97f4a7c15L;
+
+    /**
+     * @param numDice Số xúc xắc
+     * @param numSides Số mặt của mỗi xúc xắc, ít nhất 2
+     * @param bonus Điểm thưởng thêm vào kết quả
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public ExplodingDieRoll(int numDice, int numSides, int bonus) {
+        super(numDice, numSides, bonus);
+        if (numSides < 2) {
+            throw new IllegalArgumentException("Xúc xắc nổ phải có ít nhất 2 mặt");
+        }
+        if ((long) numSides * (MAX_EXPLOSIONS + 1) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Số mặt quá lớn cho xúc xắc nổ");
+        }
+    }
+
+    /**
+     * Chỉ hỗ trợ tung từng xúc xắc; mọi chế độ đều trả về chính đối tượng này.
+     */
+    @Override
+    public DieRoll withTotalMode(TotalMode mode) {
+        return this;
+    }
+
+    @Override
+    public void rollInto(RandomGenerator random, RollResult into) {
+        int[] faces = new int[getNumDice()];
+        fill(random, faces, 0);
+        into.addModifier(getBonus());
+        into.addFaces(faces, 0, faces.length);
+    }
+
+    @Override
+    int faceAt(long key, long gamma, int dieIndex) {
+        int sides = getNumSides();
+        int v = CounterRandom.faceAt(key, gamma, dieIndex, sides);
+        int total = v;
+        for (int j = 1; j <= MAX_EXPLOSIONS && v == sides; j++) {
+            v = CounterRandom.faceAt(key + j * EXPLODE_KEY_STRIDE, gamma, dieIndex, sides);
+            total += v;
+        }
+        return total;
+    }
+
+    @Override
+    public int rollFaces(RandomGenerator random, int[] out, int offset) {
+        if (random == null) {
+            throw new IllegalArgumentException("Nguồn ngẫu nhiên không được null");
+        }
+        Objects.checkFromIndexSize(offset, getNumDice(), out.length);
+        return fill(random, out, offset) + getBonus();
+    }
+
+    @Override
+    public int rollTotal(RandomGenerator random) {
+        return rollFaces(random, new int[getNumDice()], 0);
+    }
+
+    private int fill(RandomGenerator random, int[] out, int offset) {
+        int sides = getNumSides();
+        int n = getNumDice();
+        int sum = (int) FastDice.fill(random, sides, out, offset, n);
+        for (int i = offset; i < offset + n; i++) {
+            if (out[i] == sides) {
+                int extra = explode(random, sides);
+                out[i] += extra;
+                sum += extra;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Các lần tung thêm sau khi xúc xắc đã ra mặt cao nhất, tối đa MAX_EXPLOSIONS lần.
+     */
+    private static int explode(RandomGenerator random, int sides) {
+        int total = 0;
+        for (int j = 0; j < MAX_EXPLOSIONS; j++) {
+            int v = FastDice.face(random, sides);
+            total += v;
+            if (v != sides) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int getMaxTotal() {
+        long max = (long) getNumDice() * getNumSides() * (MAX_EXPLOSIONS + 1) + getBonus();
+        return (int) Math.min(Integer.MAX_VALUE, max);
+    }
+
+    @Override
+    void appendOperator(StringBuilder sb) {
+        sb.append('!');
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.random.RandomGenerator;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Sinh mặt xúc xắc nhanh và không lệch (unbiased) bằng phép nhân-dịch của Lemire
+ * ("Fast Random Integer Generation in an Interval", 2019) thay cho Random.nextInt(bound).
+ *
+ * Với x là 32 bit ngẫu nhiên, mặt = ((x * s) >>> 32) + 1. Chỉ khi 32 bit thấp của tích nhỏ
+ * hơn 2^32 mod s (xác suất < s / 2^32) mới phải lấy lại x, nên vòng lặp chính gần như không
+ * rẽ nhánh. fill() lấy hai giá trị 32 bit từ mỗi nextLong() để giảm một nửa số lời gọi RNG.
+ */
+final class FastDice {
+
+    private static final long MASK = 0xFFFFFFFFL;
+
+    private FastDice() {
+    }
+
+    /**
+     * @param random Nguồn ngẫu nhiên
+     * @param sides Số mặt, lớn hơn 0
+     * @return Một mặt trong [1, sides]
+     */
+    static int face(RandomGenerator random, int sides) {
+        long m = (random.nextInt() & MASK) * sides;
+        return ((m & MASK) < sides) ? checked(random, sides, m) : (int) (m >>> 32) + 1;
+    }
+
+    /**
+     * Nhánh hiếm của phép nhân-dịch: phần thấp của m nhỏ hơn sides. Chỉ loại khi phần thấp
+     * nhỏ hơn 2^32 mod sides; còn lại m vẫn được giữ, nếu không phân phối sẽ bị lệch.
+     *
+     * @param m Tích của 32 bit ngẫu nhiên với sides
+     * @return Một mặt trong [1, sides]
+     */
+    private static int checked(RandomGenerator random, int sides, long m) {
+        long threshold = (1L << 32) % sides;
+        while ((m & MASK) < threshold) {
+            m = (random.nextInt() & MASK) * sides;
+        }
+        return (int) (m >>> 32) + 1;
+    }
+
+    /**
+     * Ghi len mặt vào out[offset .. offset + len).
+     *
+     * @param random Nguồn ngẫu nhiên
+     * @param sides Số mặt, lớn hơn 0
+     * @param out Mảng đích
+     * @param offset Vị trí bắt đầu
+     * @param len Số mặt cần sinh
+     * @return Tổng các mặt đã sinh
+     */
+    static long fill(RandomGenerator random, int sides, int[] out, int offset, int len) {
+        long sum = 0;
+        int i = offset;
+        int end = offset + len;
+        for (; i + 1 < end; i += 2) {
+            long bits = random.nextLong();
+            long m0 = (bits >>> 32) * sides;
+            long m1 = (bits & MASK) * sides;
+            int f0 = ((m0 & MASK) < sides) ? checked(random, sides, m0) : (int) (m0 >>> 32) + 1;
+            int f1 = ((m1 & MASK) < sides) ? checked(random, sides, m1) : (int) (m1 >>> 32) + 1;
+            out[i] = f0;
+            out[i + 1] = f1;
+            sum += (long) f0 + f1;
+        }
+        if (i < end) {
+            int f = face(random, sides);
+            out[i] = f;
+            sum += f;
+        }
+        return sum;
+    }
+
+    /**
+     * Giống fill() nhưng chỉ trả về tổng, không lưu mặt.
+     *
+     * @return Tổng của count mặt
+     */
+    static long sum(RandomGenerator random, int sides, int count) {
+        long sum = 0;
+        int i = 0;
+        for (; i + 1 < count; i += 2) {
+            long bits = random.nextLong();
+            long m0 = (bits >>> 32) * sides;
+            long m1 = (bits & MASK) * sides;
+            sum += ((m0 & MASK) < sides) ? checked(random, sides, m0) : (m0 >>> 32) + 1;
+            sum += ((m1 & MASK) < sides) ? checked(random, sides, m1) : (m1 >>> 32) + 1;
+        }
+        if (i < count) {
+            sum += face(random, sides);
+        }
+        return sum;
+    }
+}
@@ -2,7 +2,10 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.*;
 
 /*vanquy
@@ -39,28 +42,108 @@ public class JDice {
         LOGGER.warning("Error shown to user: " + s); //  Log lỗi hiển thị cho người dùng
     }
 
+    /**
+     * Một yêu cầu tung: tên (có thể null) và chuỗi xúc xắc.
+     */
+    private static final class RollRequest {
+        final String name;
+        final String diceString;
+
+        RollRequest(String name, String diceString) {
+            this.name = name;
+            this.diceString = diceString;
+        }
+    }
+
+    /**
+     * Một dòng kết quả; chuỗi hiển thị chỉ được tạo khi JList cần vẽ dòng này, rồi giữ lại
+     * cho các lần vẽ sau (chỉ truy cập trên EDT).
+     */
+    private static final class RollLine {
+        final String prepend;
+        final DieRoll roll;
+        final RollResult result;
+        private String text;
+
+        RollLine(String prepend, DieRoll roll, RollResult result) {
+            this.prepend = prepend;
+            this.roll = roll;
+            this.result = result;
+        }
+
+        /**
+         * Dùng getExpression() chứ không phải roll.toString(): DiceSum.toString() tung thử một
+         * lần nữa, nên "Total" sẽ đổi mỗi khi danh sách được vẽ lại.
+         */
+        @Override
+        public String toString() {
+            if (text == null) {
+                text = prepend + roll.getExpression() + "  =>  " + result;
+            }
+            return text;
+        }
+    }
+
+    /**
+     * Kết quả của một yêu cầu: các dòng cần chèn lên đầu danh sách, hoặc thông báo lỗi.
+     */
+    private static final class RollBlock {
+        final String diceString;
+        final List<Object> lines;
+        final String error;
+
+        RollBlock(String diceString, List<Object> lines, String error) {
+            this.diceString = diceString;
+            this.lines = lines;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Xử lý sự kiện trên EDT nhưng không parse / tung trên EDT.
+     *
+     * Các yêu cầu được xếp vào pending; mỗi lúc chỉ có một RollWorker chạy trên executor nền
+     * và nhận hết các yêu cầu đang chờ, nên nhiều cú bấm liên tiếp được gộp thành một lượt
+     * (mỗi cú bấm vẫn cho một kết quả). Kết quả được publish theo từng yêu cầu và process()
+     * gộp các khối đã sẵn sàng thành một lần cập nhật JList. "Clear" huỷ lượt đang chạy và
+     * bỏ các yêu cầu đang chờ. Sự kiện lặp (cùng nguồn, cùng lệnh, cùng thời điểm, ví dụ
+     * JComboBox bắn cả comboBoxEdited lẫn comboBoxChanged khi nhấn Enter) chỉ được xử lý một lần.
+     */
     private static class JDiceListener implements ActionListener {
-        Vector<String> listItems;
+        RollHistoryModel history;
         JList<String> resultList;
         JComboBox<String> inputBox;
-        long lastEvent;
-
-        public JDiceListener(JList<String> resultList, JComboBox<String> inputBox) {
-            this.listItems = new Vector<>();
+        private final ExecutorService executor;
+        private final List<RollRequest> pending = new ArrayList<>();
+        private RollWorker current;
+        private Object lastSource;
+        private long lastWhen;
+
+        public JDiceListener(JList<String> resultList, JComboBox<String> inputBox, RollHistoryModel history) {
+            this.history = history;
             this.resultList = resultList;
             this.inputBox = inputBox;
-            lastEvent = 0;
+            this.executor = RollExecutors.newRollExecutor("jdice-roll");
         }
 
         public void actionPerformed(ActionEvent e) {
-            if (e.getWhen() == lastEvent) return;
-            lastEvent = e.getWhen();
+            if (e.getSource() == lastSource && e.getWhen() == lastWhen) {
+                return;
+            }
+            lastSource = e.getSource();
+            lastWhen = e.getWhen();
 
             String command = e.getActionCommand();
-            LOGGER.info("Action performed: " + command); //  Log hành động người dùng
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Action performed: " + command);
+            }
 
             if (e.getSource() instanceof JComboBox || ROLL.equals(command)) {
-                String s = inputBox.getSelectedItem().toString();
+                Object selected = inputBox.getSelectedItem();
+                if (selected == null) {
+                    return;
+                }
+                String s = selected.toString();
                 String[] arr = s.split("=");
                 String name = "";
                 for (int i = 0; i < arr.length - 2; i++) {
@@ -69,59 +152,135 @@ public class JDice {
                 if (arr.length >= 2) {
                     name += arr[arr.length - 2];
                 }
-                doRoll(name, arr[arr.length - 1]);
-            } else if (CLEAR.equals(command)) {
+                submit(new RollRequest(name, arr.length == 0 ? "" : arr[arr.length - 1]));
+            } else if (CMD_CLEAR.equals(command)) {
                 doClear();
             } else {
-                doRoll(null, command);
+                submit(new RollRequest(null, command));
             }
         }
 
+        private void submit(RollRequest request) {
+            pending.add(request);
+            if (current == null) {
+                startWorker();
+            }
+        }
+
+        private void startWorker() {
+            current = new RollWorker(new ArrayList<>(pending));
+            pending.clear();
+            executor.execute(current);
+        }
+
         private void doClear() {
+            pending.clear();
+            if (current != null) {
+                current.cancel(true);
+            }
             resultList.clearSelection();
-            listItems.clear();
-            resultList.setListData(listItems);
+            history.clear();
             LOGGER.info("Result list cleared."); // Log khi danh sách bị xóa
         }
 
-        private void doRoll(String name, String diceString) {
-            String prepend = "";
-            int start = 0;
+        /**
+         * Chèn một khối kết quả lên đầu danh sách (chạy trên EDT).
+         *
+         * @return Số dòng đã chèn
+         */
+        private int insert(RollBlock block) {
+            if (block.error != null) {
+                showError(block.error);
+                LOGGER.warning("Invalid dice input: " + block.diceString); //  Log input sai
+                return 0;
+            }
+            int n = history.addBlock(block.lines);
+            LOGGER.info("Roll completed: " + block.diceString); // Log khi roll thành công
+            return n;
+        }
+
+        /**
+         * Parse và tung một lượt yêu cầu trên executor nền.
+         */
+        private final class RollWorker extends SwingWorker<Void, RollBlock> {
+            private final List<RollRequest> batch;
 
-            Vector<DieRoll> v = DiceParser.parseRoll(diceString);
-            if (v == null) {
-                showError("Invalid dice string: " + diceString);
-                LOGGER.warning("Invalid dice input: " + diceString); //  Log input sai
-                return;
+            RollWorker(List<RollRequest> batch) {
+                this.batch = batch;
             }
 
-            if (name != null) {
-                listItems.add(0, name);
-                start = 1;
-                prepend = "  ";
+            @Override
+            protected Void doInBackground() {
+                for (RollRequest req : batch) {
+                    if (isCancelled()) {
+                        return null;
+                    }
+                    publish(roll(req));
+                }
+                return null;
             }
 
-            int[] selectionIndices = new int[start + v.size()];
-            for (int i = 0; i < v.size(); i++) {
-                DieRoll dr = v.get(i);
-                RollResult rr = dr.roll();
-                String toAdd = prepend + dr + "  =>  " + rr;
-                listItems.add(i + start, toAdd);
+            private RollBlock roll(RollRequest req) {
+                long start = System.nanoTime();
+                try {
+                    return rollBlock(req);
+                } finally {
+                    RollMetrics.request(RollMetrics.Frontend.GUI, System.nanoTime() - start);
+                }
             }
 
-            for (int i = 0; i < selectionIndices.length; i++) {
-                selectionIndices[i] = i;
+            private RollBlock rollBlock(RollRequest req) {
+                CompiledRoll rolls = DiceParser.compile(req.diceString);
+                if (rolls == null) {
+                    return new RollBlock(req.diceString, null, "Invalid dice string: " + req.diceString);
+                }
+                List<Object> lines = new ArrayList<>(rolls.size() + 1);
+                String prepend = "";
+                if (req.name != null) {
+                    lines.add(req.name);
+                    prepend = "  ";
+                }
+                RollResult[] results = rolls.roll();
+                for (int i = 0; i < rolls.size() && !isCancelled(); i++) {
+                    lines.add(new RollLine(prepend, rolls.get(i), results[i]));
+                }
+                return new RollBlock(req.diceString, lines, null);
             }
 
-            resultList.setListData(listItems);
-            resultList.setSelectedIndices(selectionIndices);
+            @Override
+            protected void process(List<RollBlock> chunks) {
+                if (isCancelled()) {
+                    return;
+                }
+                int added = 0;
+                for (RollBlock block : chunks) {
+                    int n = insert(block);
+                    if (n > 0) {
+                        added = n;
+                    }
+                }
+                if (added == 0) {
+                    return;
+                }
+                // Chọn khối mới nhất, giống hành vi cũ.
+                resultList.setSelectionInterval(0, added - 1);
+            }
 
-            LOGGER.info("Roll completed: " + diceString); // Log khi roll thành công
+            @Override
+            protected void done() {
+                if (current == this) {
+                    current = null;
+                }
+                if (!pending.isEmpty()) {
+                    startWorker();
+                }
+            }
         }
     }
 
     public static void main(String[] args) {
         setupLogging(); //  Cấu hình logging trước khi chạy
+        RollMetrics.registerMBean();
 
         Vector<String> v = new Vector<>();
         if (args.length >= 1) {
@@ -140,7 +299,20 @@ public class JDice {
         Container c = jf.getContentPane();
         c.setLayout(new BorderLayout());
 
-        JList<String> jl = new JList<>();
+        RollHistoryModel history = new RollHistoryModel(Integer.getInteger("jdice.history.size", 10000));
+        String spillFile = System.getProperty("jdice.history.spill");
+        if (spillFile != null) {
+            try {
+                history.setSpill(new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(spillFile, true), StandardCharsets.UTF_8)));
+            } catch (IOException ioe) {
+                LOGGER.log(Level.WARNING, "Could not open history spill file: " + spillFile, ioe);
+            }
+        }
+
+        JList<String> jl = new JList<>(history);
+        // Chiều cao dòng cố định: JList không phải đo mọi dòng để tính kích thước.
+        jl.setFixedCellHeight(jl.getFontMetrics(jl.getFont()).getHeight() + 2);
         JScrollPane scrollPane = new JScrollPane(jl);
         c.add(scrollPane, BorderLayout.CENTER);
 
@@ -148,12 +320,12 @@ public class JDice {
         jcb.setEditable(true);
         c.add(jcb, BorderLayout.NORTH);
 
-        JDiceListener jdl = new JDiceListener(jl, jcb);
+        JDiceListener jdl = new JDiceListener(jl, jcb, history);
         jcb.addActionListener(jdl);
 
         JPanel rightSide = new JPanel();
         rightSide.setLayout(new BoxLayout(rightSide, BoxLayout.Y_AXIS));
-        String[] buttons = {ROLL, "d4", "d6", "d8", "d10", "d12", "d20", "d100", CLEAR};
+        String[] buttons = {ROLL, "d4", "d6", "d8", "d10", "d12", "d20", "d100", CMD_CLEAR};
 
         for (String button : buttons) {
             JButton newButton = new JButton(button);
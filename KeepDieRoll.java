@@ -0,0 +1,226 @@
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Tung N xúc xắc S mặt rồi chỉ giữ k xúc xắc cao nhất ("4d6kh3") hoặc thấp nhất ("2d20kl1").
+ *
+ * Mọi mặt đều được ghi vào RollResult (để hiển thị và tính lại), nhưng tổng chỉ gồm các mặt
+ * được giữ cộng điểm thưởng. Tổng của k mặt được chọn từng phần, không sắp xếp cả mảng:
+ * - số mặt nhỏ so với N: đếm tần suất từng giá trị rồi lấy từ đầu cao (thấp) xuống, O(N + S);
+ * - còn lại: quickselect trên bản sao các mặt, trung bình O(N).
+ */
+public class KeepDieRoll extends DieRoll {
+
+    /** Dùng bảng đếm khi S không vượt quá COUNTING_FACTOR * N + COUNTING_SLACK. */
+    private static final int COUNTING_FACTOR = 4;
+    private static final int COUNTING_SLACK = 64;
+
+    private final int keep;
+    private final boolean highest;
+
+    /**
+     * @param numDice Số xúc xắc
+     * @param numSides Số mặt của mỗi xúc xắc
+     * @param keep Số xúc xắc giữ lại, từ 1 đến numDice
+     * @param highest true để giữ các mặt cao nhất, false để giữ các mặt thấp nhất
+     * @param bonus Điểm thưởng thêm vào kết quả
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public KeepDieRoll(int numDice, int numSides, int keep, boolean highest, int bonus) {
+        super(numDice, numSides, bonus);
+        if (keep < 1 || keep > numDice) {
+            throw new IllegalArgumentException("Số xúc xắc giữ lại phải từ 1 đến " + numDice);
+        }
+        this.keep = keep;
+        this.highest = highest;
+    }
+
+    /**
+     * @return Số xúc xắc giữ lại
+     */
+    public int getKeep() {
+        return keep;
+    }
+
+    /**
+     * @return true nếu giữ các mặt cao nhất, false nếu giữ các mặt thấp nhất
+     */
+    public boolean isHighest() {
+        return highest;
+    }
+
+    /**
+     * Chỉ hỗ trợ tung từng xúc xắc; mọi chế độ đều trả về chính đối tượng này.
+     */
+    @Override
+    public DieRoll withTotalMode(TotalMode mode) {
+        return this;
+    }
+
+    @Override
+    public void rollInto(RandomGenerator random, RollResult into) {
+        int start = into.size();
+        super.rollInto(random, into);
+        dropDiscarded(into, start);
+    }
+
+    @Override
+    int rollSeededInto(long key, long gamma, int firstDie, RollResult into) {
+        int start = into.size();
+        int next = super.rollSeededInto(key, gamma, firstDie, into);
+        dropDiscarded(into, start);
+        return next;
+    }
+
+    /**
+     * Trừ khỏi tổng các mặt không được giữ trong into[start .. start + N).
+     */
+    private void dropDiscarded(RollResult into, int start) {
+        int[] faces = into.faceBuffer();
+        int all = 0;
+        for (int i = 0; i < getNumDice(); i++) {
+            all += faces[start + i];
+        }
+        into.adjustTotal(keptSum(faces, start) - all);
+    }
+
+    @Override
+    public int rollFaces(RandomGenerator random, int[] out, int offset) {
+        super.rollFaces(random, out, offset);
+        return keptSum(out, offset) + getBonus();
+    }
+
+    @Override
+    public int rollTotal(RandomGenerator random) {
+        return rollFaces(random, new int[getNumDice()], 0);
+    }
+
+    /**
+     * Tổng của k mặt được giữ trong faces[offset .. offset + N); không sửa faces.
+     */
+    int keptSum(int[] faces, int offset) {
+        int n = getNumDice();
+        int sides = getNumSides();
+        if (keep == n) {
+            int sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += faces[offset + i];
+            }
+            return sum;
+        }
+        if (sides <= (long) COUNTING_FACTOR * n + COUNTING_SLACK) {
+            return countingSum(faces, offset, n, sides);
+        }
+        return selectSum(faces, offset, n);
+    }
+
+    private int countingSum(int[] faces, int offset, int n, int sides) {
+        int[] counts = new int[sides + 1];
+        for (int i = 0; i < n; i++) {
+            counts[faces[offset + i]]++;
+        }
+        int need = keep;
+        int sum = 0;
+        int v = highest ? sides : 1;
+        int step = highest ? -1 : 1;
+        while (need > 0) {
+            int take = Math.min(counts[v], need);
+            sum += take * v;
+            need -= take;
+            v += step;
+        }
+        return sum;
+    }
+
+    /**
+     * Quickselect (Hoare, chốt trung vị của ba) đưa phần tử thứ target về đúng vị trí,
+     * các phần tử bên trái không lớn hơn, bên phải không nhỏ hơn nó.
+     */
+    private int selectSum(int[] faces, int offset, int n) {
+        int[] a = Arrays.copyOfRange(faces, offset, offset + n);
+        int target = highest ? n - keep : keep - 1;
+        int lo = 0;
+        int hi = n - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int x = a[lo];
+            int y = a[mid];
+            int z = a[hi];
+            int pivot = Math.max(Math.min(x, y), Math.min(Math.max(x, y), z));
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (a[i] < pivot) {
+                    i++;
+                }
+                while (a[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int t = a[i];
+                    a[i++] = a[j];
+                    a[j--] = t;
+                }
+            }
+            if (target <= j) {
+                hi = j;
+            } else if (target >= i) {
+                lo = i;
+            } else {
+                break;
+            }
+        }
+        int from = highest ? n - keep : 0;
+        int sum = 0;
+        for (int i = from; i < from + keep; i++) {
+            sum += a[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public int getMinTotal() {
+        return keep + getBonus();
+    }
+
+    @Override
+    public int getMaxTotal() {
+        return keep * getNumSides() + getBonus();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && keep == ((KeepDieRoll) o).keep && highest == ((KeepDieRoll) o).highest;
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode() * 31 + (keep << 1 | (highest ? 1 : 0));
+    }
+
+    @Override
+    void appendOperator(StringBuilder sb) {
+        sb.append(highest ? "kh" : "kl").append(keep);
+    }
+}
@@ -0,0 +1,268 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Mô phỏng Monte-Carlo song song: tung một DieRoll N lần và trả về histogram của tổng.
+ *
+ * N được chia thành các tác vụ fork/join; mỗi tác vụ có SplittableRandom riêng (tách từ
+ * gốc theo cấu trúc cây cố định, nên cùng seed cho cùng kết quả dù số luồng khác nhau)
+ * và đếm vào một mảng long[] riêng, được cộng gộp khi join. Dùng DieRoll.rollTotal()
+ * nên không lưu từng mặt.
+ */
+public final class MonteCarlo {
+
+    /** Số lần tung tối thiểu trong một tác vụ lá. */
+    private static final long MIN_LEAF = 4096;
+
+    /** Số tác vụ lá tối đa trong một vòng, đủ để chia đều cho mọi core. */
+    private static final long MAX_LEAVES = 256;
+
+    /** Số lần tung của vòng đầu tiên khi chạy có điều kiện dừng sớm. */
+    private static final long FIRST_ROUND = 100_000;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Dùng ForkJoinPool.commonPool().
+     */
+    public MonteCarlo() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool Pool dùng để chạy mô phỏng
+     */
+    public MonteCarlo(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool không được null");
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Tung roll đúng trials lần.
+     *
+     * @param roll DieRoll cần mô phỏng
+     * @param trials Số lần tung
+     * @param seed Seed gốc; cùng seed cho cùng histogram
+     * @return Histogram của tổng
+     */
+    public Histogram simulate(DieRoll roll, long trials, long seed) {
+        Histogram h = new Histogram(roll);
+        runRound(roll, trials, new SplittableRandom(seed), h);
+        return h;
+    }
+
+    /**
+     * Tung theo từng vòng (mỗi vòng gấp đôi vòng trước) cho tới khi nửa độ rộng khoảng tin
+     * cậy của kỳ vọng nhỏ hơn targetHalfWidth, hoặc đạt maxTrials.
+     *
+     * @param roll DieRoll cần mô phỏng
+     * @param maxTrials Số lần tung tối đa
+     * @param targetHalfWidth Nửa độ rộng khoảng tin cậy mong muốn của kỳ vọng
+     * @param z Hệ số z của mức tin cậy (1.96 cho 95%)
+     * @param seed Seed gốc
+     * @return Histogram của tổng
+     */
+    public Histogram simulateUntil(DieRoll roll, long maxTrials, double targetHalfWidth, double z, long seed) {
+        if (!(targetHalfWidth > 0) || !(z > 0)) {
+            throw new IllegalArgumentException("targetHalfWidth và z phải lớn hơn 0");
+        }
+        Histogram h = new Histogram(roll);
+        SplittableRandom root = new SplittableRandom(seed);
+        long round = Math.min(FIRST_ROUND, maxTrials);
+        while (h.trials < maxTrials) {
+            runRound(roll, Math.min(round, maxTrials - h.trials), root.split(), h);
+            if (h.getConfidenceHalfWidth(z) <= targetHalfWidth) {
+                break;
+            }
+            round = Math.min(round * 2, Long.MAX_VALUE / 2);
+        }
+        return h;
+    }
+
+    private void runRound(DieRoll roll, long trials, SplittableRandom rng, Histogram into) {
+        if (trials < 0) {
+            throw new IllegalArgumentException("Số lần tung không được âm");
+        }
+        if (trials == 0) {
+            return;
+        }
+        // Kích thước lá chỉ phụ thuộc trials (không phụ thuộc số luồng) để kết quả tái lập được.
+        long leaf = Math.max(MIN_LEAF, trials / MAX_LEAVES);
+        long[] counts = pool.invoke(new Task(roll, into.min, into.counts.length, trials, leaf, rng));
+        into.merge(counts, trials);
+    }
+
+    private static final class Task extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final DieRoll roll;
+        private final int min;
+        private final int range;
+        private final long trials;
+        private final long leaf;
+        private final SplittableRandom rng;
+
+        Task(DieRoll roll, int min, int range, long trials, long leaf, SplittableRandom rng) {
+            this.roll = roll;
+            this.min = min;
+            this.range = range;
+            this.trials = trials;
+            this.leaf = leaf;
+            this.rng = rng;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (trials <= leaf) {
+                long[] counts = new long[range];
+                for (long i = 0; i < trials; i++) {
+                    counts[roll.rollTotal(rng) - min]++;
+                }
+                return counts;
+            }
+            long half = trials >>> 1;
+            Task left = new Task(roll, min, range, half, leaf, rng.split());
+            Task right = new Task(roll, min, range, trials - half, leaf, rng.split());
+            left.fork();
+            long[] r = right.compute();
+            long[] l = left.join();
+            for (int i = 0; i < range; i++) {
+                l[i] += r[i];
+            }
+            return l;
+        }
+    }
+
+    /**
+     * Histogram tổng của các lần tung, kèm thống kê.
+     */
+    public static final class Histogram {
+        private final int min;
+        private final long[] counts;
+        private long trials;
+        private double sum;
+        private double sumSq;
+
+        Histogram(DieRoll roll) {
+            long range = (long) roll.getMaxTotal() - roll.getMinTotal() + 1;
+            if (range > DiceDistribution.MAX_RANGE) {
+                throw new IllegalArgumentException("Khoảng giá trị của histogram quá lớn: " + range);
+            }
+            this.min = roll.getMinTotal();
+            this.counts = new long[(int) range];
+        }
+
+        void merge(long[] add, long n) {
+            sum = 0;
+            sumSq = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += add[i];
+                double v = (double) min + i;
+                sum += counts[i] * v;
+                sumSq += counts[i] * v * v;
+            }
+            trials += n;
+        }
+
+        /**
+         * @return Số lần đã tung
+         */
+        public long getTrials() {
+            return trials;
+        }
+
+        /**
+         * @return Tổng nhỏ nhất có thể (chỉ số 0 của histogram)
+         */
+        public int getMin() {
+            return min;
+        }
+
+        /**
+         * @return Tổng lớn nhất có thể
+         */
+        public int getMax() {
+            return min + counts.length - 1;
+        }
+
+        /**
+         * @param total Giá trị tổng
+         * @return Số lần tung ra total
+         */
+        public long getCount(int total) {
+            long i = (long) total - min;
+            return (i < 0 || i >= counts.length) ? 0 : counts[(int) i];
+        }
+
+        /**
+         * @param total Giá trị tổng
+         * @return Tần suất tương đối của total
+         */
+        public double getFrequency(int total) {
+            return trials == 0 ? 0 : (double) getCount(total) / trials;
+        }
+
+        /**
+         * @return Trung bình mẫu
+         */
+        public double getMean() {
+            return trials == 0 ? Double.NaN : sum / trials;
+        }
+
+        /**
+         * @return Phương sai mẫu
+         */
+        public double getVariance() {
+            if (trials < 2) {
+                return Double.NaN;
+            }
+            double mean = sum / trials;
+            return Math.max(0, (sumSq - trials * mean * mean) / (trials - 1));
+        }
+
+        /**
+         * @param z Hệ số z của mức tin cậy (1.96 cho 95%)
+         * @return Nửa độ rộng khoảng tin cậy của kỳ vọng
+         */
+        public double getConfidenceHalfWidth(double z) {
+            return trials < 2 ? Double.POSITIVE_INFINITY : z * Math.sqrt(getVariance() / trials);
+        }
+
+        /**
+         * @return Bản sao mảng đếm, phần tử 0 ứng với getMin()
+         */
+        public long[] toArray() {
+            return counts.clone();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%d..%d] trials=%d mean=%.4f sd=%.4f",
+                    getMin(), getMax(), trials, getMean(), Math.sqrt(getVariance()));
+        }
+    }
+}
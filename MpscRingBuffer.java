@@ -0,0 +1,137 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Hàng đợi vòng có giới hạn, nhiều producer / một consumer, không khoá (thuật toán của
+ * Dmitry Vyukov: mỗi ô có một số thứ tự cho biết ô đang trống hay đã có dữ liệu).
+ *
+ * offer() chỉ tốn một CAS trên con trỏ đuôi và không bao giờ chờ: khi đầy thì trả về false
+ * để người gọi tự chọn cách xử lý. poll() / drain() chỉ được gọi từ đúng một luồng.
+ */
+final class MpscRingBuffer<E> {
+
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // chỉ consumer đọc / ghi
+    private volatile long headPublished;
+
+    /**
+     * @param capacity Dung lượng, được làm tròn lên luỹ thừa của 2
+     * @throws IllegalArgumentException nếu capacity nhỏ hơn 2 hoặc quá lớn
+     */
+    MpscRingBuffer(int capacity) {
+        if (capacity < 2 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Dung lượng ring buffer không hợp lệ: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.buffer = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * @param e Phần tử, không null
+     * @return false nếu hàng đợi đầy
+     */
+    boolean offer(E e) {
+        long pos = tail.get();
+        for (;;) {
+            int idx = (int) (pos & mask);
+            long dif = sequences.get(idx) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    buffer[idx] = e;
+                    sequences.lazySet(idx, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Chỉ gọi từ luồng consumer.
+     *
+     * @return Phần tử đầu hàng, hoặc null nếu rỗng (hoặc producer chưa ghi xong ô đầu)
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        int idx = (int) (head & mask);
+        if (sequences.get(idx) != head + 1) {
+            return null;
+        }
+        E e = (E) buffer[idx];
+        buffer[idx] = null;
+        sequences.lazySet(idx, head + mask + 1);
+        head++;
+        headPublished = head;
+        return e;
+    }
+
+    /**
+     * Lấy tối đa limit phần tử và đưa lần lượt cho consumer. Chỉ gọi từ luồng consumer.
+     *
+     * @return Số phần tử đã lấy
+     */
+    int drain(Consumer<? super E> consumer, int limit) {
+        int n = 0;
+        E e;
+        while (n < limit && (e = poll()) != null) {
+            consumer.accept(e);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return Số phần tử đang chờ (xấp xỉ khi có producer đang ghi)
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - headPublished);
+    }
+
+    /**
+     * @return true nếu không có phần tử nào đang chờ (xấp xỉ)
+     */
+    boolean isEmpty() {
+        return tail.get() == headPublished;
+    }
+
+    /**
+     * @return Dung lượng thực (luỹ thừa của 2)
+     */
+    int capacity() {
+        return buffer.length;
+    }
+}
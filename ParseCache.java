@@ -0,0 +1,140 @@
+import java.util.*;
+import java.util.function.Function;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Cache LRU có giới hạn, an toàn đa luồng, ánh xạ biểu thức đã chuẩn hoá sang CompiledRoll.
+ *
+ * - Loại bỏ phần tử ít được dùng gần đây nhất khi vượt quá kích thước tối đa.
+ * - Đếm số lần hit / miss / eviction để theo dõi hiệu quả cache.
+ * - Việc phân tích cú pháp khi miss được thực hiện ngoài khoá, nên một biểu thức
+ *   chậm không chặn các luồng đang đọc cache.
+ */
+public final class ParseCache {
+
+    private final LinkedHashMap<String, CompiledRoll> map;
+    private int maximumSize;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maximumSize Số biểu thức tối đa được giữ trong cache (0 = tắt cache)
+     * @throws IllegalArgumentException nếu maximumSize âm
+     */
+    public ParseCache(int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("Kích thước cache không được âm");
+        }
+        this.maximumSize = maximumSize;
+        this.map = new LinkedHashMap<String, CompiledRoll>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledRoll> eldest) {
+                if (size() > ParseCache.this.maximumSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Lấy kế hoạch đã biên dịch cho key, hoặc gọi loader nếu chưa có.
+     * Kết quả null từ loader (biểu thức lỗi) không được lưu vào cache.
+     *
+     * @param key Biểu thức đã chuẩn hoá
+     * @param loader Hàm phân tích cú pháp khi cache miss
+     * @return CompiledRoll hoặc null nếu loader trả về null
+     */
+    public CompiledRoll get(String key, Function<String, CompiledRoll> loader) {
+        synchronized (this) {
+            CompiledRoll cached = map.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        CompiledRoll loaded = loader.apply(key);
+        if (loaded == null) {
+            return null;
+        }
+        synchronized (this) {
+            CompiledRoll raced = map.putIfAbsent(key, loaded);
+            return raced != null ? raced : loaded;
+        }
+    }
+
+    /**
+     * Thay đổi kích thước tối đa; các phần tử cũ nhất bị loại bỏ nếu cần.
+     *
+     * @param maximumSize Kích thước mới (0 = tắt cache)
+     * @throws IllegalArgumentException nếu maximumSize âm
+     */
+    public synchronized void setMaximumSize(int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("Kích thước cache không được âm");
+        }
+        this.maximumSize = maximumSize;
+        Iterator<String> it = map.keySet().iterator();
+        while (map.size() > maximumSize && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Xoá toàn bộ cache (không reset bộ đếm).
+     */
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ParseCache[size=" + map.size() + "/" + maximumSize
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+}
@@ -0,0 +1,150 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Các nguồn số ngẫu nhiên dùng cho DieRoll.roll(RandomGenerator).
+ *
+ * - threadLocal(), perThreadSplittable(), perThread(): dùng chung được giữa nhiều luồng,
+ *   mỗi luồng có trạng thái riêng nên không tranh chấp (không CAS trên seed chung như Random).
+ * - seeded(): chế độ tất định cho replay, chỉ dùng trong một luồng.
+ * - counter(): luồng tất định đánh địa chỉ bằng (seed, rollId), tính lại được từ giữa chừng
+ *   (xem CounterRandom và DieRoll.roll(long, long)).
+ */
+public final class RandomSources {
+
+    /** Thuật toán mặc định cho seeded() và perThread(). */
+    public static final String DEFAULT_ALGORITHM = "L64X128MixRandom";
+
+    private static final RandomGenerator THREAD_LOCAL = new RandomGenerator() {
+        @Override
+        public long nextLong() {
+            return ThreadLocalRandom.current().nextLong();
+        }
+
+        @Override
+        public int nextInt() {
+            return ThreadLocalRandom.current().nextInt();
+        }
+
+        @Override
+        public int nextInt(int bound) {
+            return ThreadLocalRandom.current().nextInt(bound);
+        }
+    };
+
+    private RandomSources() {
+    }
+
+    /**
+     * @return Nguồn dựa trên ThreadLocalRandom; đây là nguồn mặc định của DieRoll.roll()
+     */
+    public static RandomGenerator threadLocal() {
+        return THREAD_LOCAL;
+    }
+
+    /**
+     * @param seed Seed gốc
+     * @param rollId Định danh luồng con; các rollId khác nhau cho các luồng độc lập
+     * @return CounterRandom mới ở vị trí 0, chỉ dùng trong một luồng
+     */
+    public static CounterRandom counter(long seed, long rollId) {
+        return new CounterRandom(seed, rollId);
+    }
+
+    /**
+     * Mỗi luồng nhận một SplittableRandom riêng, tách (split) từ một gốc có seed cho trước.
+     *
+     * @param seed Seed của SplittableRandom gốc
+     * @return Nguồn dùng chung được giữa các luồng
+     */
+    public static RandomGenerator perThreadSplittable(long seed) {
+        SplittableRandom root = new SplittableRandom(seed);
+        return new PerThread(() -> {
+            synchronized (root) {
+                return root.split();
+            }
+        });
+    }
+
+    /**
+     * Mỗi luồng nhận một generator riêng của thuật toán cho trước (họ RandomGenerator của JDK 17).
+     *
+     * @param algorithm Tên thuật toán, ví dụ "L64X128MixRandom" hoặc "Xoshiro256PlusPlus"
+     * @return Nguồn dùng chung được giữa các luồng
+     * @throws IllegalArgumentException nếu thuật toán không tồn tại
+     */
+    public static RandomGenerator perThread(String algorithm) {
+        RandomGeneratorFactory<RandomGenerator> factory = RandomGeneratorFactory.of(algorithm);
+        return new PerThread(factory::create);
+    }
+
+    /**
+     * Generator tất định: cùng seed cho cùng chuỗi kết quả. Không an toàn đa luồng.
+     *
+     * @param seed Seed
+     * @return Generator L64X128MixRandom khởi tạo bằng seed
+     */
+    public static RandomGenerator seeded(long seed) {
+        return seeded(DEFAULT_ALGORITHM, seed);
+    }
+
+    /**
+     * @param algorithm Tên thuật toán
+     * @param seed Seed
+     * @return Generator tất định của thuật toán cho trước. Không an toàn đa luồng.
+     * @throws IllegalArgumentException nếu thuật toán không tồn tại
+     */
+    public static RandomGenerator seeded(String algorithm, long seed) {
+        return RandomGeneratorFactory.of(algorithm).create(seed);
+    }
+
+    /**
+     * Generator chuyển mỗi lời gọi tới instance riêng của luồng hiện tại.
+     */
+    private static final class PerThread implements RandomGenerator {
+        private final ThreadLocal<RandomGenerator> local;
+
+        PerThread(Supplier<? extends RandomGenerator> factory) {
+            this.local = ThreadLocal.withInitial(factory);
+        }
+
+        @Override
+        public long nextLong() {
+            return local.get().nextLong();
+        }
+
+        @Override
+        public int nextInt() {
+            return local.get().nextInt();
+        }
+
+        @Override
+        public int nextInt(int bound) {
+            return local.get().nextInt(bound);
+        }
+    }
+}
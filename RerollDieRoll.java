@@ -0,0 +1,123 @@
+import java.util.Objects;
+import java.util.random.RandomGenerator;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Tung lại mặt thấp ("2d20r1"): mọi mặt không vượt quá ngưỡng t đều được tung lại cho tới khi
+ * lớn hơn t.
+ *
+ * Kết quả cuối của việc tung lại đến khi lớn hơn t phân phối đều trên [t + 1, S], nên mỗi mặt
+ * được lấy thẳng bằng t + (mặt của xúc xắc S - t mặt): không có vòng tung lại, không rẽ nhánh
+ * theo từng xúc xắc, và FastDice.fill tung cả N mặt một lượt.
+ */
+public class RerollDieRoll extends DieRoll {
+
+    private final int threshold;
+
+    /**
+     * @param numDice Số xúc xắc
+     * @param numSides Số mặt của mỗi xúc xắc
+     * @param threshold Các mặt từ 1 đến threshold bị tung lại; từ 1 đến numSides - 1
+     * @param bonus Điểm thưởng thêm vào kết quả
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public RerollDieRoll(int numDice, int numSides, int threshold, int bonus) {
+        super(numDice, numSides, bonus);
+        if (threshold < 1 || threshold >= numSides) {
+            throw new IllegalArgumentException("Ngưỡng tung lại phải từ 1 đến " + (numSides - 1));
+        }
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return Ngưỡng tung lại
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Chỉ hỗ trợ tung từng xúc xắc; mọi chế độ đều trả về chính đối tượng này.
+     */
+    @Override
+    public DieRoll withTotalMode(TotalMode mode) {
+        return this;
+    }
+
+    @Override
+    public void rollInto(RandomGenerator random, RollResult into) {
+        int[] faces = new int[getNumDice()];
+        fill(random, faces, 0);
+        into.addModifier(getBonus());
+        into.addFaces(faces, 0, faces.length);
+    }
+
+    @Override
+    int faceAt(long key, long gamma, int dieIndex) {
+        return threshold + CounterRandom.faceAt(key, gamma, dieIndex, getNumSides() - threshold);
+    }
+
+    @Override
+    public int rollFaces(RandomGenerator random, int[] out, int offset) {
+        if (random == null) {
+            throw new IllegalArgumentException("Nguồn ngẫu nhiên không được null");
+        }
+        Objects.checkFromIndexSize(offset, getNumDice(), out.length);
+        return fill(random, out, offset) + getBonus();
+    }
+
+    @Override
+    public int rollTotal(RandomGenerator random) {
+        return (int) FastDice.sum(random, getNumSides() - threshold, getNumDice())
+                + getNumDice() * threshold + getBonus();
+    }
+
+    private int fill(RandomGenerator random, int[] out, int offset) {
+        int n = getNumDice();
+        int sum = (int) FastDice.fill(random, getNumSides() - threshold, out, offset, n);
+        for (int i = offset; i < offset + n; i++) {
+            out[i] += threshold;
+        }
+        return sum + n * threshold;
+    }
+
+    @Override
+    public int getMinTotal() {
+        return getNumDice() * (threshold + 1) + getBonus();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && threshold == ((RerollDieRoll) o).threshold;
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode() * 31 + threshold;
+    }
+
+    @Override
+    void appendOperator(StringBuilder sb) {
+        sb.append('r').append(threshold);
+    }
+}
@@ -0,0 +1,632 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Nhật ký kiểm toán (audit journal) chỉ ghi thêm cho mọi lần tung: biểu thức, seed, các mặt và tổng.
+ *
+ * Luồng tung chỉ đẩy bản ghi vào một MpscRingBuffer (một CAS, không khoá, không I/O). Khi ring
+ * đầy, append() chờ tối đa maxAppendWaitMillis (mặc định 0: không chờ) rồi ném
+ * IllegalStateException và tăng getRejectedCount(), nên luồng tung không bị chặn vô hạn; một
+ * luồng ghi riêng gom mọi bản ghi đang chờ thành một lượt (group commit), chép chúng vào
+ * segment ánh xạ bộ nhớ hiện tại rồi force() theo chính sách Fsync. Segment đầy thì mở
+ * segment mới tên "audit-<số thứ tự bản ghi đầu>.seg".
+ *
+ * Bố cục một bản ghi (big-endian):
+ *   int   độ dài phần sau trường này (0 = hết segment)
+ *   int   CRC32C của phần sau trường CRC
+ *   long  số thứ tự (tăng dần, liên tục qua các segment)
+ *   long  thời điểm (System.currentTimeMillis())
+ *   long  seed của nguồn ngẫu nhiên (0 nếu không biết)
+ *   long  rollId khi tung theo địa chỉ DieRoll.roll(seed, rollId) (0 nếu không dùng)
+ *   short độ dài biểu thức UTF-8 | các byte biểu thức
+ *   RollResult theo RollCodec (số mặt, modifier, tổng, các mặt đóng gói bit)
+ *
+ * Khi mở lại thư mục cũ, segment cuối được quét tới bản ghi hợp lệ cuối cùng (bản ghi ghi dở
+ * bị CRC loại bỏ) và việc ghi tiếp tục từ đó. replay() đọc tuần tự toàn bộ nhật ký.
+ */
+public class RollAuditLog implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(RollAuditLog.class.getName());
+
+    /**
+     * Khi nào gọi force() để dữ liệu xuống đĩa.
+     */
+    public enum Fsync {
+        /** Để hệ điều hành tự ghi; nhanh nhất, có thể mất dữ liệu khi máy sập. */
+        NONE,
+        /** Sau mỗi lượt group commit. */
+        BATCH,
+        /** Nhiều nhất một lần mỗi khoảng thời gian cho trước. */
+        INTERVAL
+    }
+
+    /** Kích thước header cố định của một bản ghi, trước biểu thức. */
+    private static final int HEADER = 4 + 4 + 8 + 8 + 8 + 8 + 2;
+
+    /** Độ dài tối đa (byte UTF-8) của biểu thức, giới hạn bởi trường độ dài 16 bit. */
+    private static final int MAX_EXPRESSION_BYTES = 0xFFFF;
+
+    /** Số bản ghi tối đa trong một lượt group commit. */
+    private static final int MAX_BATCH = 4096;
+
+    /** Thời gian luồng ghi ngủ khi không có việc. */
+    private static final long IDLE_NANOS = 1_000_000L;
+
+    /** Khoảng park của append() khi chờ ring có chỗ. */
+    private static final long APPEND_PARK_NANOS = 20_000L;
+
+    /**
+     * Một bản ghi trong nhật ký.
+     */
+    public static final class Record {
+        private final long sequence;
+        private final long timeMillis;
+        private final long seed;
+        private final long rollId;
+        private final String expression;
+        private final RollResult result;
+
+        Record(long sequence, long timeMillis, long seed, long rollId, String expression, RollResult result) {
+            this.sequence = sequence;
+            this.timeMillis = timeMillis;
+            this.seed = seed;
+            this.rollId = rollId;
+            this.expression = expression;
+            this.result = result;
+        }
+
+        /** @return Số thứ tự bản ghi */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /** @return Thời điểm ghi nhận (ms từ epoch) */
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        /** @return Seed của nguồn ngẫu nhiên */
+        public long getSeed() {
+            return seed;
+        }
+
+        /** @return rollId của lần tung theo địa chỉ */
+        public long getRollId() {
+            return rollId;
+        }
+
+        /**
+         * Tung lại theo địa chỉ DieRoll.roll(getSeed(), getRollId()); với bản ghi được tạo từ một
+         * lần tung theo địa chỉ, kết quả phải trùng getResult().
+         *
+         * @return Kết quả tính lại
+         * @throws DiceParseException nếu biểu thức không phân tích được
+         */
+        public RollResult recompute() {
+            return DiceParser.parse(expression).get(0).roll(seed, rollId);
+        }
+
+        /** @return Biểu thức đã tung */
+        public String getExpression() {
+            return expression;
+        }
+
+        /** @return Kết quả (các mặt, modifier, tổng) */
+        public RollResult getResult() {
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + sequence + " " + expression + " seed=" + seed + " rollId=" + rollId + " => " + result;
+        }
+    }
+
+    private final Path dir;
+    private final long segmentSize;
+    private final Fsync fsync;
+    private final long fsyncIntervalNanos;
+    private final MpscRingBuffer<Record> ring;
+    private final Thread writer;
+    private final long maxAppendWaitNanos;
+    private final AtomicLong appended = new AtomicLong();
+    private final LongAdder rejected = new LongAdder();
+    private final CRC32C crc = new CRC32C();
+
+    private volatile boolean running = true;
+    private volatile boolean writerIdle;
+    private volatile long written;
+    private volatile IOException failure;
+
+    // Chỉ luồng ghi dùng các trường dưới đây.
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long nextSequence;
+    private boolean dirty;
+    private long lastForce;
+
+    /**
+     * Segment 64 MiB, ring 65536 bản ghi, force() sau mỗi lượt.
+     *
+     * @param dir Thư mục chứa các segment (tạo nếu chưa có)
+     * @throws IOException nếu không mở được thư mục / segment
+     */
+    public RollAuditLog(Path dir) throws IOException {
+        this(dir, 64L * 1024 * 1024, 1 << 16, Fsync.BATCH, 0);
+    }
+
+    /**
+     * @param dir Thư mục chứa các segment (tạo nếu chưa có)
+     * @param segmentSize Kích thước mỗi segment (byte)
+     * @param ringCapacity Số bản ghi tối đa chờ ghi
+     * @param fsync Chính sách force()
+     * @param fsyncIntervalMillis Khoảng cách tối thiểu giữa hai lần force() khi fsync là INTERVAL
+     * @throws IOException nếu không mở được thư mục / segment
+     */
+    public RollAuditLog(Path dir, long segmentSize, int ringCapacity, Fsync fsync, long fsyncIntervalMillis)
+            throws IOException {
+        this(dir, segmentSize, ringCapacity, fsync, fsyncIntervalMillis, 0);
+    }
+
+    /**
+     * @param dir Thư mục chứa các segment (tạo nếu chưa có)
+     * @param segmentSize Kích thước mỗi segment (byte)
+     * @param ringCapacity Số bản ghi tối đa chờ ghi
+     * @param fsync Chính sách force()
+     * @param fsyncIntervalMillis Khoảng cách tối thiểu giữa hai lần force() khi fsync là INTERVAL
+     * @param maxAppendWaitMillis Thời gian tối đa append() chờ khi ring đầy, 0 để từ chối ngay
+     * @throws IOException nếu không mở được thư mục / segment
+     */
+    public RollAuditLog(Path dir, long segmentSize, int ringCapacity, Fsync fsync, long fsyncIntervalMillis,
+                        long maxAppendWaitMillis) throws IOException {
+        if (dir == null || fsync == null) {
+            throw new IllegalArgumentException("Thư mục và chính sách fsync không được null");
+        }
+        if (segmentSize < 4096 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Kích thước segment phải trong [4096, 2^31)");
+        }
+        if (maxAppendWaitMillis < 0) {
+            throw new IllegalArgumentException("Thời gian chờ không được âm");
+        }
+        this.maxAppendWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxAppendWaitMillis);
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+        this.fsyncIntervalNanos = fsyncIntervalMillis * 1_000_000L;
+        this.ring = new MpscRingBuffer<>(ringCapacity);
+        Files.createDirectories(dir);
+        recover();
+        this.writer = new Thread(this::writeLoop, "jdice-audit-" + dir.getFileName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Ghi nhận một lần tung. Không làm I/O; khi ring đầy (luồng ghi không theo kịp) chỉ chờ
+     * tối đa maxAppendWaitMillis.
+     * result không được sửa sau khi gọi (không dùng với bộ đệm của DieRoll.roll(random, reuse)).
+     *
+     * @param expression Biểu thức đã tung (tối đa 65535 byte UTF-8)
+     * @param seed Seed của nguồn ngẫu nhiên, 0 nếu không biết
+     * @param result Kết quả
+     * @throws IllegalArgumentException nếu tham số không hợp lệ, biểu thức dài quá 65535 byte UTF-8
+     *         hoặc bản ghi lớn hơn một segment
+     * @throws IllegalStateException nếu nhật ký đã đóng, luồng ghi đã gặp lỗi I/O, hoặc ring
+     *         vẫn đầy sau maxAppendWaitMillis (bản ghi bị từ chối, xem getRejectedCount())
+     */
+    public void append(String expression, long seed, RollResult result) {
+        append(expression, seed, 0, result);
+    }
+
+    /**
+     * Ghi nhận một lần tung theo địa chỉ DieRoll.roll(seed, rollId), để Record.recompute()
+     * tính lại được đúng kết quả này.
+     *
+     * @param expression Biểu thức đã tung (tối đa 65535 byte UTF-8)
+     * @param seed Seed gốc
+     * @param rollId Định danh lần tung
+     * @param result Kết quả
+     * @throws IllegalStateException như append(String, long, RollResult)
+     */
+    public void append(String expression, long seed, long rollId, RollResult result) {
+        if (expression == null || result == null) {
+            throw new IllegalArgumentException("Biểu thức và kết quả không được null");
+        }
+        // Mỗi char tốn tối đa 3 byte UTF-8; chỉ mã hoá thật khi cận trên này vượt giới hạn.
+        long exprBytes = expression.length() * 3L;
+        if (exprBytes > MAX_EXPRESSION_BYTES) {
+            exprBytes = expression.getBytes(StandardCharsets.UTF_8).length;
+            if (exprBytes > MAX_EXPRESSION_BYTES) {
+                throw new IllegalArgumentException("Biểu thức dài quá " + MAX_EXPRESSION_BYTES + " byte UTF-8");
+            }
+        }
+        if (HEADER + exprBytes + RollCodec.maxEncodedSize(result) + 4 > segmentSize) {
+            throw new IllegalArgumentException("Bản ghi lớn hơn kích thước segment");
+        }
+        checkOpen();
+        Record r = new Record(-1, System.currentTimeMillis(), seed, rollId, expression, result);
+        if (!ring.offer(r) && !offerWithin(r)) {
+            rejected.increment();
+            throw new IllegalStateException("Hàng đợi nhật ký kiểm toán đầy, bản ghi bị từ chối");
+        }
+        appended.incrementAndGet();
+        if (writerIdle) {
+            LockSupport.unpark(writer);
+        }
+        if (!running) {
+            // close() có thể đã chạy xong trước khi bản ghi vào ring.
+            rejectLeftovers();
+        }
+    }
+
+    /**
+     * Thử lại tới hết maxAppendWaitNanos, đánh thức luồng ghi giữa các lần thử.
+     */
+    private boolean offerWithin(Record r) {
+        if (maxAppendWaitNanos == 0) {
+            return false;
+        }
+        long deadline = System.nanoTime() + maxAppendWaitNanos;
+        do {
+            checkOpen();
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(APPEND_PARK_NANOS);
+            if (ring.offer(r)) {
+                return true;
+            }
+        } while (System.nanoTime() - deadline < 0);
+        return false;
+    }
+
+    /**
+     * Sau khi đóng: chờ luồng ghi dừng rồi bỏ các bản ghi còn sót trong ring, báo lỗi cho
+     * người gọi. Luồng ghi đã dừng nên luồng giữ khoá là consumer duy nhất của ring.
+     */
+    private synchronized void rejectLeftovers() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                writer.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        int n = ring.drain(x -> { }, Integer.MAX_VALUE);
+        if (n > 0) {
+            rejected.add(n);
+            throw new IllegalStateException("Nhật ký kiểm toán đã đóng, " + n + " bản ghi không được ghi");
+        }
+    }
+
+    /**
+     * @return Số bản ghi bị append() từ chối vì ring đầy hoặc vì nhật ký đóng trong lúc append
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @param roll DieRoll đã tung (dùng getExpression())
+     * @param seed Seed của nguồn ngẫu nhiên, 0 nếu không biết
+     * @param result Kết quả
+     */
+    public void append(DieRoll roll, long seed, RollResult result) {
+        append(roll.getExpression(), seed, result);
+    }
+
+    /**
+     * @param roll DieRoll đã tung bằng roll(seed, rollId)
+     * @param seed Seed gốc
+     * @param rollId Định danh lần tung
+     * @param result Kết quả
+     */
+    public void append(DieRoll roll, long seed, long rollId, RollResult result) {
+        append(roll.getExpression(), seed, rollId, result);
+    }
+
+    /**
+     * Chờ tới khi mọi bản ghi đã append trước lời gọi này được ghi vào segment
+     * (và force() nếu chính sách là BATCH).
+     *
+     * @throws IOException nếu luồng ghi gặp lỗi
+     */
+    public void flush() throws IOException {
+        long target = appended.get();
+        while (written < target) {
+            if (failure != null) {
+                throw failure;
+            }
+            if (!writer.isAlive()) {
+                break;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(50_000L);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return Số bản ghi đã ghi vào segment kể từ khi mở
+     */
+    public long getWrittenCount() {
+        return written;
+    }
+
+    /**
+     * Ghi nốt các bản ghi đang chờ, force() rồi đóng.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void checkOpen() {
+        if (!running) {
+            throw new IllegalStateException("Nhật ký kiểm toán đã đóng");
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Nhật ký kiểm toán gặp lỗi I/O", failure);
+        }
+    }
+
+    // ---------------------------------------------------------------- Luồng ghi
+
+    private void writeLoop() {
+        try {
+            while (running || !ring.isEmpty()) {
+                int n = ring.drain(this::write, MAX_BATCH);
+                if (n == 0) {
+                    if (dirty && fsync == Fsync.INTERVAL) {
+                        force();
+                    }
+                    writerIdle = true;
+                    if (ring.isEmpty() && running) {
+                        LockSupport.parkNanos(IDLE_NANOS);
+                    }
+                    writerIdle = false;
+                    continue;
+                }
+                if (fsync == Fsync.BATCH
+                        || (fsync == Fsync.INTERVAL && System.nanoTime() - lastForce >= fsyncIntervalNanos)) {
+                    force();
+                }
+                written += n;
+            }
+            force();
+            channel.close();
+        } catch (IOException e) {
+            failure = e;
+            LOGGER.log(Level.SEVERE, "Nhật ký kiểm toán ngừng ghi", e);
+        } catch (RuntimeException e) {
+            failure = new IOException("Lỗi khi ghi nhật ký kiểm toán", e);
+            LOGGER.log(Level.SEVERE, "Nhật ký kiểm toán ngừng ghi", e);
+        }
+    }
+
+    private void write(Record r) {
+        byte[] expr = r.expression.getBytes(StandardCharsets.UTF_8);
+        int bound = HEADER + expr.length + RollCodec.maxEncodedSize(r.result);
+        try {
+            // Luôn chừa 4 byte cho dấu kết thúc (độ dài 0) ở cuối segment.
+            if (segment.remaining() < bound + 4) {
+                rotate();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int start = segment.position();
+        segment.position(start + 8);
+        segment.putLong(nextSequence);
+        segment.putLong(r.timeMillis);
+        segment.putLong(r.seed);
+        segment.putLong(r.rollId);
+        segment.putShort((short) expr.length);
+        segment.put(expr);
+        RollCodec.encode(r.result, segment);
+        int end = segment.position();
+        crc.reset();
+        crc.update(segment.duplicate().position(start + 8).limit(end));
+        segment.putInt(start + 4, (int) crc.getValue());
+        // Độ dài được ghi sau cùng để bản ghi chỉ "xuất hiện" khi đã đầy đủ.
+        segment.putInt(start, end - start - 4);
+        nextSequence++;
+        dirty = true;
+    }
+
+    private void force() {
+        if (dirty) {
+            segment.force();
+            dirty = false;
+        }
+        lastForce = System.nanoTime();
+    }
+
+    private void rotate() throws IOException {
+        force();
+        channel.close();
+        openSegment(dir.resolve(segmentName(nextSequence)), 0);
+    }
+
+    private void openSegment(Path file, int position) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segment.position(position);
+    }
+
+    /**
+     * Tìm segment cuối và vị trí sau bản ghi hợp lệ cuối cùng.
+     */
+    private void recover() throws IOException {
+        List<Path> segments = segments(dir);
+        if (segments.isEmpty()) {
+            nextSequence = 0;
+            openSegment(dir.resolve(segmentName(0)), 0);
+            return;
+        }
+        Path last = segments.get(segments.size() - 1);
+        long[] state = {firstSequence(last), 0};
+        try (FileChannel ch = FileChannel.open(last, StandardOpenOption.READ)) {
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            scanSegment(buf, r -> state[0] = r.sequence + 1, new CRC32C());
+            state[1] = buf.position();
+        }
+        nextSequence = state[0];
+        if (state[1] + 4 > segmentSize) {
+            // Segment cũ được tạo với kích thước lớn hơn và đã gần đầy: sang segment mới.
+            openSegment(dir.resolve(segmentName(nextSequence)), 0);
+            return;
+        }
+        openSegment(last, (int) state[1]);
+        // Xoá phần đuôi có thể là bản ghi ghi dở, để lần quét sau dừng đúng chỗ.
+        segment.putInt((int) state[1], 0);
+        LOGGER.log(Level.INFO, "Mở lại nhật ký kiểm toán {0}, bản ghi tiếp theo #{1}",
+                new Object[]{last, nextSequence});
+    }
+
+    // ---------------------------------------------------------------- Đọc lại
+
+    /**
+     * Đọc tuần tự mọi bản ghi hợp lệ trong thư mục, theo thứ tự số thứ tự.
+     * Mỗi segment được ánh xạ chỉ đọc; dừng ở bản ghi hỏng / ghi dở đầu tiên của mỗi segment.
+     *
+     * @param dir Thư mục nhật ký
+     * @param fromSequence Bỏ qua các bản ghi có số thứ tự nhỏ hơn giá trị này
+     * @param visitor Nhận từng bản ghi
+     * @return Số bản ghi đã đưa cho visitor
+     * @throws IOException nếu đọc lỗi
+     */
+    public static long replay(Path dir, long fromSequence, Consumer<? super Record> visitor) throws IOException {
+        List<Path> segments = segments(dir);
+        long[] count = {0};
+        CRC32C crc = new CRC32C();
+        for (int i = 0; i < segments.size(); i++) {
+            // Bỏ qua cả segment nếu segment sau vẫn bắt đầu trước fromSequence.
+            if (i + 1 < segments.size() && firstSequence(segments.get(i + 1)) <= fromSequence) {
+                continue;
+            }
+            try (FileChannel ch = FileChannel.open(segments.get(i), StandardOpenOption.READ)) {
+                ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                scanSegment(buf, r -> {
+                    if (r.sequence >= fromSequence) {
+                        visitor.accept(r);
+                        count[0]++;
+                    }
+                }, crc);
+            }
+        }
+        return count[0];
+    }
+
+    /**
+     * Đọc các bản ghi từ position hiện tại của buf tới dấu kết thúc hoặc bản ghi hỏng;
+     * position dừng ngay sau bản ghi hợp lệ cuối cùng.
+     */
+    private static void scanSegment(ByteBuffer buf, Consumer<Record> visitor, CRC32C crc) {
+        while (buf.remaining() >= 4) {
+            int start = buf.position();
+            int len = buf.getInt(start);
+            if (len < HEADER - 4 || len > buf.remaining() - 4) {
+                break;
+            }
+            int end = start + 4 + len;
+            crc.reset();
+            crc.update(buf.duplicate().position(start + 8).limit(end));
+            if ((int) crc.getValue() != buf.getInt(start + 4)) {
+                break;
+            }
+            ByteBuffer rec = buf.duplicate().position(start + 8).limit(end);
+            long seq = rec.getLong();
+            long time = rec.getLong();
+            long seed = rec.getLong();
+            long rollId = rec.getLong();
+            byte[] expr = new byte[rec.getShort() & 0xFFFF];
+            rec.get(expr);
+            RollResult result = RollCodec.decodeResult(rec);
+            visitor.accept(new Record(seq, time, seed, rollId, new String(expr, StandardCharsets.UTF_8), result));
+            buf.position(end);
+        }
+    }
+
+    private static String segmentName(long firstSequence) {
+        return String.format("audit-%020d.seg", firstSequence);
+    }
+
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring("audit-".length(), name.length() - ".seg".length()));
+    }
+
+    private static List<Path> segments(Path dir) throws IOException {
+        List<Path> out = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return out;
+        }
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "audit-*.seg")) {
+            for (Path p : ds) {
+                out.add(p);
+            }
+        }
+        // Tên có số thứ tự 20 chữ số nên thứ tự chữ cái trùng thứ tự số.
+        Collections.sort(out);
+        return out;
+    }
+}
@@ -0,0 +1,345 @@
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.random.RandomGenerator;
+import java.util.regex.Pattern;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Bộ benchmark cho các đường nóng parse / roll, chạy bằng "mvn -Pbench verify"
+ * hoặc "java RollBenchmark [regex]".
+ *
+ * Mỗi benchmark chạy các vòng warmup rồi các vòng đo, in ra ns/op, ops/s và số byte
+ * cấp phát trên mỗi op (đọc từ com.sun.management.ThreadMXBean, tương đương
+ * gc.alloc.rate.norm của GC profiler). Kết quả được cộng dồn vào một biến volatile
+ * để JIT không loại bỏ phép tính.
+ *
+ * Thời gian mỗi vòng đổi bằng -Dbench.millis=N, số vòng bằng -Dbench.warmup / -Dbench.iterations,
+ * số luồng cho benchmark tranh chấp bằng -Dbench.threads.
+ *
+ * Nhóm "dispatch.*" so RollDispatcher với ThreadPoolExecutor + LinkedBlockingQueue: bench.threads
+ * luồng gửi request, mỗi lần một cửa sổ DISPATCH_WINDOW request rồi chờ hết, cùng số worker.
+ */
+public class RollBenchmark {
+
+    private static final long MILLIS = Long.getLong("bench.millis", 1000);
+    private static final int WARMUP = Integer.getInteger("bench.warmup", 3);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    private static final int THREADS = Integer.getInteger("bench.threads", Runtime.getRuntime().availableProcessors());
+
+    private static volatile long sink;
+
+    private static final int DISPATCH_WINDOW = 256;
+
+    /**
+     * Một thao tác cần đo; trả về một giá trị để đưa vào sink.
+     */
+    private interface Op {
+        long run();
+    }
+
+    private static final Map<String, Op> SINGLE = new LinkedHashMap<>();
+    private static final Map<String, RandomGenerator> CONTENDED = new LinkedHashMap<>();
+
+    static {
+        String shortExpr = "d20+5";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0) {
+                sb.append(" ; ");
+            }
+            sb.append("4d6+3 & 2d8-1");
+        }
+        String longExpr = sb.toString();
+        DieRoll small = new DieRoll(3, 6, 0);
+        DieRoll huge = new DieRoll(1000, 6, 0);
+        DieRoll nested = DiceParser.parse("d4 & d6 & d8 & d10 & d12 & d20 & 2d6 & 3d4 & d100 & 4d6").get(0);
+        RandomGenerator rng = RandomSources.seeded(42);
+        RollResult a = small.roll(rng);
+        RollResult b = huge.roll(rng);
+        RollResult reuse = new RollResult(0, 1000);
+        int[] faces = new int[1000];
+        ByteBuffer wire = ByteBuffer.allocateDirect(RollCodec.maxEncodedSize(b));
+        CompiledRoll plan = DiceParser.parse("3d6+2 & d8 ; d20+5 ; 4d6");
+        DieRoll keepHalf = new KeepDieRoll(1000, 6, 500, true, 0);
+        DieRoll exploding = new ExplodingDieRoll(1000, 6, 0);
+        DieRoll successes = new SuccessDieRoll(1000, 10, 7, 0);
+        int[] planOut = new int[(int) (plan.size() + plan.getFaceCount())];
+
+        SINGLE.put("parse.short.uncached", () -> uncachedSize(shortExpr));
+        SINGLE.put("parse.short.cached", () -> DiceParser.compile(shortExpr).size());
+        SINGLE.put("parse.long.uncached", () -> uncachedSize(longExpr));
+        SINGLE.put("roll.3d6", () -> small.roll(rng).getTotal());
+        SINGLE.put("roll.1000d6", () -> huge.roll(rng).getTotal());
+        SINGLE.put("roll.1000d6.reuse", () -> huge.roll(rng, reuse).getTotal());
+        SINGLE.put("roll.1000d6.nextIntLoop", () -> nextIntLoop(rng, faces, 6));
+        SINGLE.put("rollFaces.1000d6", () -> huge.rollFaces(rng, faces, 0));
+        SINGLE.put("rollTotal.1000d6", () -> huge.rollTotal(rng));
+        SINGLE.put("roll.nestedSum", () -> nested.roll(rng).getTotal());
+        SINGLE.put("rollFaces.1000d6kh500", () -> keepHalf.rollFaces(rng, faces, 0));
+        SINGLE.put("rollFaces.1000d6!", () -> exploding.rollFaces(rng, faces, 0));
+        SINGLE.put("rollFaces.1000d10>=7", () -> successes.rollFaces(rng, faces, 0));
+        SINGLE.put("plan.interpreted", () -> interpretPlan(plan, rng, planOut));
+        SINGLE.put("plan.compiled", () -> {
+            plan.roll(rng, planOut);
+            return planOut[0];
+        });
+        SINGLE.put("result.andThen", () -> a.andThen(b).getTotal());
+        SINGLE.put("result.toString", () -> b.toString().length());
+        SINGLE.put("result.encode", () -> {
+            wire.clear();
+            RollCodec.encode(b, wire);
+            return wire.position();
+        });
+        SINGLE.put("result.decode", () -> {
+            wire.flip();
+            return RollCodec.decodeResult(wire).getTotal();
+        });
+
+        CONTENDED.put("contended.roll.3d6.sharedRandom", new Random(42));
+        CONTENDED.put("contended.roll.3d6.threadLocal", RandomSources.threadLocal());
+        CONTENDED.put("contended.roll.3d6.perThreadSplittable", RandomSources.perThreadSplittable(42));
+    }
+
+    /**
+     * Xoá cache trước khi compile để đo chi phí phân tích cú pháp thật sự.
+     */
+    private static long uncachedSize(String expr) {
+        DiceParser.getCache().clear();
+        return DiceParser.compile(expr).size();
+    }
+
+    /**
+     * Giống bản thông dịch bên trong CompiledRoll, để so với bản hidden class.
+     */
+    private static long interpretPlan(CompiledRoll plan, RandomGenerator rng, int[] out) {
+        int offset = plan.size();
+        for (int i = 0; i < plan.size(); i++) {
+            DieRoll dr = plan.get(i);
+            out[i] = dr.rollFaces(rng, out, offset);
+            offset += dr.getNumDice();
+        }
+        return out[0];
+    }
+
+    /**
+     * Cách tung cũ (một lời gọi nextInt(bound) cho mỗi mặt), làm mốc so sánh cho rollFaces.
+     */
+    private static long nextIntLoop(RandomGenerator rng, int[] out, int sides) {
+        long sum = 0;
+        for (int i = 0; i < out.length; i++) {
+            out[i] = rng.nextInt(sides) + 1;
+            sum += out[i];
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Pattern filter = Pattern.compile(args.length > 0 ? args[0] : ".*");
+        System.out.printf("%-40s %14s %16s %14s%n", "Benchmark", "ns/op", "ops/s", "B/op");
+        for (Map.Entry<String, Op> e : SINGLE.entrySet()) {
+            if (filter.matcher(e.getKey()).find()) {
+                runSingle(e.getKey(), e.getValue());
+            }
+        }
+        DieRoll small = new DieRoll(3, 6, 0);
+        for (Map.Entry<String, RandomGenerator> e : CONTENDED.entrySet()) {
+            if (filter.matcher(e.getKey()).find()) {
+                runContended(e.getKey() + " x" + THREADS, small, e.getValue());
+            }
+        }
+        int workers = Math.max(1, THREADS / 2);
+        if (filter.matcher("dispatch.ringBuffer").find()) {
+            try (RollDispatcher d = new RollDispatcher(workers, 1024, RollDispatcher.Overflow.BLOCK)) {
+                runDispatch("dispatch.ringBuffer x" + THREADS + "/" + workers, small, d::submit);
+            }
+        }
+        if (filter.matcher("dispatch.linkedBlockingQueue").find()) {
+            ExecutorService pool = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>());
+            try {
+                runDispatch("dispatch.linkedBlockingQueue x" + THREADS + "/" + workers, small,
+                        r -> CompletableFuture.supplyAsync(r::roll, pool));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        System.out.println("(sink " + sink + ")");
+    }
+
+    private interface Submitter {
+        CompletableFuture<RollResult> submit(DieRoll roll);
+    }
+
+    private static void runDispatch(String name, DieRoll roll, Submitter submitter) throws Exception {
+        ExecutorService producers = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int i = 0; i < WARMUP; i++) {
+                measureDispatch(producers, roll, submitter);
+            }
+            long ops = 0;
+            long nanos = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long[] m = measureDispatch(producers, roll, submitter);
+                ops += m[0];
+                nanos += m[1];
+            }
+            report(name, ops, nanos, -1);
+        } finally {
+            producers.shutdown();
+        }
+    }
+
+    private static long[] measureDispatch(ExecutorService producers, DieRoll roll, Submitter submitter)
+            throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<Future<Long>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(producers.submit(() -> {
+                barrier.await();
+                @SuppressWarnings({"unchecked", "rawtypes"})
+                CompletableFuture<RollResult>[] window = new CompletableFuture[DISPATCH_WINDOW];
+                long deadline = System.nanoTime() + MILLIS * 1_000_000L;
+                long ops = 0;
+                long acc = 0;
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < DISPATCH_WINDOW; i++) {
+                        window[i] = submitter.submit(roll);
+                    }
+                    for (int i = 0; i < DISPATCH_WINDOW; i++) {
+                        acc += window[i].join().getTotal();
+                    }
+                    ops += DISPATCH_WINDOW;
+                }
+                sink += acc;
+                return ops;
+            }));
+        }
+        long ops = 0;
+        for (Future<Long> f : futures) {
+            ops += f.get();
+        }
+        return new long[]{ops, System.nanoTime() - start};
+    }
+
+    private static void runSingle(String name, Op op) {
+        for (int i = 0; i < WARMUP; i++) {
+            measure(op);
+        }
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long[] m = measure(op);
+            ops += m[0];
+            nanos += m[1];
+            bytes += m[2];
+        }
+        report(name, ops, nanos, bytes);
+    }
+
+    /**
+     * @return {số op, thời gian ns, số byte cấp phát}
+     */
+    private static long[] measure(Op op) {
+        long allocBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long deadline = start + MILLIS * 1_000_000L;
+        long ops = 0;
+        long acc = 0;
+        long now;
+        do {
+            for (int i = 0; i < 64; i++) {
+                acc += op.run();
+            }
+            ops += 64;
+            now = System.nanoTime();
+        } while (now < deadline);
+        long bytes = allocatedBytes() - allocBefore;
+        sink += acc;
+        return new long[]{ops, now - start, bytes};
+    }
+
+    private static void runContended(String name, DieRoll roll, RandomGenerator rng) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int i = 0; i < WARMUP; i++) {
+                measureContended(pool, roll, rng);
+            }
+            long ops = 0;
+            long nanos = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long[] m = measureContended(pool, roll, rng);
+                ops += m[0];
+                nanos += m[1];
+            }
+            report(name, ops, nanos, -1);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static long[] measureContended(ExecutorService pool, DieRoll roll, RandomGenerator rng) throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<Future<Long>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(pool.submit(() -> {
+                barrier.await();
+                long deadline = System.nanoTime() + MILLIS * 1_000_000L;
+                long ops = 0;
+                long acc = 0;
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < 64; i++) {
+                        acc += roll.roll(rng).getTotal();
+                    }
+                    ops += 64;
+                }
+                sink += acc;
+                return ops;
+            }));
+        }
+        long ops = 0;
+        for (Future<Long> f : futures) {
+            ops += f.get();
+        }
+        // Thời gian thực (wall time) chia cho tổng op của mọi luồng = thông lượng tổng.
+        return new long[]{ops, System.nanoTime() - start};
+    }
+
+    private static void report(String name, long ops, long nanos, long bytes) {
+        double nsPerOp = (double) nanos / ops;
+        String bytesPerOp = bytes < 0 ? "-" : String.format("%.1f", (double) bytes / ops);
+        System.out.printf("%-40s %14.2f %16.0f %14s%n", name, nsPerOp, 1e9 / nsPerOp, bytesPerOp);
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
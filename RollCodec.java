@@ -0,0 +1,566 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Định dạng nhị phân gọn cho biểu thức (CompiledRoll / DieRoll) và RollResult, dùng song song
+ * với toString() khi cần lưu trữ hoặc truyền hàng triệu kết quả.
+ *
+ * RollResult:  varint số mặt | zigzag modifier | zigzag tổng | 1 byte độ rộng w |
+ *              các giá trị (mặt - 1) đóng gói w bit mỗi mặt, LSB trước.
+ *              w là số bit của mặt lớn nhất trong kết quả, nên 3d6 tốn 3 bit mỗi mặt,
+ *              d20 tốn 5 bit, và 1000d6 tốn khoảng 380 byte thay vì khoảng 3 KB văn bản.
+ * DieRoll:     tag TAG_DICE | varint số xúc xắc | varint số mặt | zigzag điểm thưởng
+ *              tag TAG_KEEP_HIGHEST / TAG_KEEP_LOWEST / TAG_REROLL / TAG_SUCCESS | như TAG_DICE |
+ *                  varint tham số (K hoặc ngưỡng)
+ *              tag TAG_EXPLODE | như TAG_DICE
+ *              tag TAG_SUM  | varint số số hạng | các số hạng
+ * CompiledRoll: varint số DieRoll | các DieRoll
+ *
+ * Khung (frame) trên kênh: int 4 byte big-endian độ dài | 1 byte loại | nội dung. Độ dài cố
+ * định cho phép ghi thẳng vào bộ đệm rồi điền độ dài sau, không cần mảng trung gian.
+ *
+ * Các hàm encode/decode đọc ghi trực tiếp trên ByteBuffer của người gọi (heap hoặc direct),
+ * từ position hiện tại. Dữ liệu hỏng làm decode ném IllegalArgumentException.
+ */
+public final class RollCodec {
+
+    /** Tag của một DieRoll đơn "NdS+B". */
+    public static final byte TAG_DICE = 1;
+
+    /** Tag của một DiceSum. */
+    public static final byte TAG_SUM = 2;
+
+    /** Tag của KeepDieRoll giữ mặt cao nhất "NdSkhK+B". */
+    public static final byte TAG_KEEP_HIGHEST = 3;
+
+    /** Tag của KeepDieRoll giữ mặt thấp nhất "NdSklK+B". */
+    public static final byte TAG_KEEP_LOWEST = 4;
+
+    /** Tag của ExplodingDieRoll "NdS!+B". */
+    public static final byte TAG_EXPLODE = 5;
+
+    /** Tag của RerollDieRoll "NdSrT+B". */
+    public static final byte TAG_REROLL = 6;
+
+    /** Tag của SuccessDieRoll "NdS>=T+B". */
+    public static final byte TAG_SUCCESS = 7;
+
+    /** Số byte tối đa của một DieRoll đơn: tag và bốn varint. */
+    private static final int MAX_LEAF_SIZE = 1 + 4 * 5;
+
+    /** Loại khung chứa một CompiledRoll. */
+    public static final byte FRAME_COMPILED = 1;
+
+    /** Loại khung chứa một RollResult. */
+    public static final byte FRAME_RESULT = 2;
+
+    /** Kích thước khung tối đa mà ChannelReader chấp nhận. */
+    public static final int MAX_FRAME = 64 * 1024 * 1024;
+
+    private RollCodec() {
+    }
+
+    // ---------------------------------------------------------------- RollResult
+
+    /**
+     * @param r Kết quả cần mã hoá
+     * @return Số byte tối đa mà encode(r, dst) có thể ghi
+     */
+    public static int maxEncodedSize(RollResult r) {
+        return 5 + 5 + 5 + 1 + (int) (((long) r.size() * 31 + 7) / 8);
+    }
+
+    /**
+     * Ghi r vào dst từ position hiện tại.
+     *
+     * @param r Kết quả cần mã hoá
+     * @param dst Bộ đệm đích
+     * @throws java.nio.BufferOverflowException nếu dst không đủ chỗ (xem maxEncodedSize)
+     */
+    public static void encode(RollResult r, ByteBuffer dst) {
+        int n = r.size();
+        int max = 1;
+        for (int i = 0; i < n; i++) {
+            max = Math.max(max, r.getFace(i));
+        }
+        int width = 32 - Integer.numberOfLeadingZeros(max - 1);
+        putVarint(dst, n);
+        putVarint(dst, zigzag(r.getBonus()));
+        putVarint(dst, zigzag(r.getTotal()));
+        dst.put((byte) width);
+        if (width == 0) {
+            return;
+        }
+        long acc = 0;
+        int bits = 0;
+        for (int i = 0; i < n; i++) {
+            acc |= (long) (r.getFace(i) - 1) << bits;
+            bits += width;
+            while (bits >= 8) {
+                dst.put((byte) acc);
+                acc >>>= 8;
+                bits -= 8;
+            }
+        }
+        if (bits > 0) {
+            dst.put((byte) acc);
+        }
+    }
+
+    /**
+     * Đọc một RollResult từ src, position tiến tới sau dữ liệu đã đọc.
+     *
+     * @param src Bộ đệm nguồn
+     * @return RollResult đã giải mã
+     * @throws IllegalArgumentException nếu dữ liệu không hợp lệ
+     */
+    public static RollResult decodeResult(ByteBuffer src) {
+        int n = getVarint(src);
+        int modifier = unzigzag(getVarint(src));
+        int total = unzigzag(getVarint(src));
+        int width = get(src);
+        if (width > 31) {
+            throw new IllegalArgumentException("Độ rộng mặt không hợp lệ: " + width);
+        }
+        // width = 0 (mọi mặt là 1) không tốn byte nào, nên n phải được chặn riêng.
+        if (n < 0 || n > MAX_FRAME) {
+            throw new IllegalArgumentException("Số mặt không hợp lệ: " + n);
+        }
+        if ((long) n * width > (long) src.remaining() * 8) {
+            throw new IllegalArgumentException("Thiếu dữ liệu mặt: cần " + n + " mặt");
+        }
+        int[] faces = new int[n];
+        if (width == 0) {
+            Arrays.fill(faces, 1);
+            return new RollResult(total, modifier, faces, n);
+        }
+        long mask = (1L << width) - 1;
+        long acc = 0;
+        int bits = 0;
+        for (int i = 0; i < n; i++) {
+            while (bits < width) {
+                acc |= (long) (src.get() & 0xFF) << bits;
+                bits += 8;
+            }
+            faces[i] = (int) (acc & mask) + 1;
+            acc >>>= width;
+            bits -= width;
+        }
+        return new RollResult(total, modifier, faces, n);
+    }
+
+    // ---------------------------------------------------------------- Biểu thức
+
+    /**
+     * Ghi một DieRoll (DieRoll đơn, các phép biến đổi của nó, hoặc DiceSum) vào dst.
+     *
+     * @param roll DieRoll cần mã hoá
+     * @param dst Bộ đệm đích
+     * @throws IllegalArgumentException nếu roll là một lớp con không được hỗ trợ
+     */
+    public static void encode(DieRoll roll, ByteBuffer dst) {
+        if (roll instanceof DiceSum) {
+            List<DieRoll> terms = ((DiceSum) roll).getTerms();
+            dst.put(TAG_SUM);
+            putVarint(dst, terms.size());
+            for (DieRoll t : terms) {
+                encode(t, dst);
+            }
+        } else if (roll.getClass() == DieRoll.class) {
+            putLeaf(dst, TAG_DICE, roll);
+        } else if (roll.getClass() == KeepDieRoll.class) {
+            KeepDieRoll keep = (KeepDieRoll) roll;
+            putLeaf(dst, keep.isHighest() ? TAG_KEEP_HIGHEST : TAG_KEEP_LOWEST, roll);
+            putVarint(dst, keep.getKeep());
+        } else if (roll.getClass() == ExplodingDieRoll.class) {
+            putLeaf(dst, TAG_EXPLODE, roll);
+        } else if (roll.getClass() == RerollDieRoll.class) {
+            putLeaf(dst, TAG_REROLL, roll);
+            putVarint(dst, ((RerollDieRoll) roll).getThreshold());
+        } else if (roll.getClass() == SuccessDieRoll.class) {
+            putLeaf(dst, TAG_SUCCESS, roll);
+            putVarint(dst, ((SuccessDieRoll) roll).getTarget());
+        } else {
+            throw new IllegalArgumentException("Không mã hoá được " + roll.getClass().getName());
+        }
+    }
+
+    private static void putLeaf(ByteBuffer dst, byte tag, DieRoll roll) {
+        dst.put(tag);
+        putVarint(dst, roll.getNumDice());
+        putVarint(dst, roll.getNumSides());
+        putVarint(dst, zigzag(roll.getBonus()));
+    }
+
+    /**
+     * @param src Bộ đệm nguồn
+     * @return DieRoll đã giải mã
+     * @throws IllegalArgumentException nếu dữ liệu không hợp lệ
+     */
+    public static DieRoll decodeRoll(ByteBuffer src) {
+        int tag = get(src);
+        switch (tag) {
+            case TAG_DICE:
+                return DieRoll.of(getVarint(src), getVarint(src), unzigzag(getVarint(src)));
+            case TAG_KEEP_HIGHEST:
+            case TAG_KEEP_LOWEST: {
+                int n = getVarint(src);
+                int s = getVarint(src);
+                int bonus = unzigzag(getVarint(src));
+                return new KeepDieRoll(n, s, getVarint(src), tag == TAG_KEEP_HIGHEST, bonus);
+            }
+            case TAG_EXPLODE:
+                return new ExplodingDieRoll(getVarint(src), getVarint(src), unzigzag(getVarint(src)));
+            case TAG_REROLL: {
+                int n = getVarint(src);
+                int s = getVarint(src);
+                int bonus = unzigzag(getVarint(src));
+                return new RerollDieRoll(n, s, getVarint(src), bonus);
+            }
+            case TAG_SUCCESS: {
+                int n = getVarint(src);
+                int s = getVarint(src);
+                int bonus = unzigzag(getVarint(src));
+                return new SuccessDieRoll(n, s, getVarint(src), bonus);
+            }
+            case TAG_SUM: {
+                int n = getVarint(src);
+                if (n < 1 || n > src.remaining()) {
+                    throw new IllegalArgumentException("Số số hạng không hợp lệ: " + n);
+                }
+                List<DieRoll> terms = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    // DiceSum luôn được làm phẳng khi mã hoá; chặn lồng nhau để dữ liệu hỏng
+                    // không gây StackOverflowError.
+                    if (src.hasRemaining() && src.get(src.position()) == TAG_SUM) {
+                        throw new IllegalArgumentException("DiceSum lồng nhau không hợp lệ");
+                    }
+                    terms.add(decodeRoll(src));
+                }
+                return new DiceSum(terms);
+            }
+            default:
+                throw new IllegalArgumentException("Tag không hợp lệ: " + tag);
+        }
+    }
+
+    /**
+     * @param plan Biểu thức đã biên dịch
+     * @param dst Bộ đệm đích
+     */
+    public static void encode(CompiledRoll plan, ByteBuffer dst) {
+        putVarint(dst, plan.size());
+        for (int i = 0; i < plan.size(); i++) {
+            encode(plan.get(i), dst);
+        }
+    }
+
+    /**
+     * Biểu thức của CompiledRoll trả về được dựng lại từ các DieRoll, nối bằng ';'.
+     *
+     * @param src Bộ đệm nguồn
+     * @return CompiledRoll đã giải mã
+     * @throws IllegalArgumentException nếu dữ liệu không hợp lệ
+     */
+    public static CompiledRoll decodeCompiled(ByteBuffer src) {
+        int n = getVarint(src);
+        if (n < 0 || n > src.remaining()) {
+            throw new IllegalArgumentException("Số DieRoll không hợp lệ: " + n);
+        }
+        List<DieRoll> rolls = new ArrayList<>(n);
+        StringBuilder expr = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            DieRoll dr = decodeRoll(src);
+            if (i > 0) {
+                expr.append(';');
+            }
+            expr.append(dr.getExpression());
+            rolls.add(dr);
+        }
+        return new CompiledRoll(expr.toString(), rolls);
+    }
+
+    // ---------------------------------------------------------------- Varint
+
+    static void putVarint(ByteBuffer dst, int v) {
+        while ((v & ~0x7F) != 0) {
+            dst.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        dst.put((byte) v);
+    }
+
+    static int getVarint(ByteBuffer src) {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = get(src);
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IllegalArgumentException("Varint quá dài");
+    }
+
+    static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static int get(ByteBuffer src) {
+        if (!src.hasRemaining()) {
+            throw new IllegalArgumentException("Dữ liệu bị cắt cụt");
+        }
+        return src.get() & 0xFF;
+    }
+
+    // ---------------------------------------------------------------- Kênh NIO
+
+    /**
+     * Ghi các khung vào một WritableByteChannel qua một bộ đệm direct dùng lại.
+     * Nội dung được mã hoá thẳng vào bộ đệm; chỉ ghi ra kênh khi bộ đệm đầy hoặc flush().
+     * Không an toàn khi dùng từ nhiều luồng.
+     */
+    public static final class ChannelWriter implements Flushable, Closeable {
+        private final WritableByteChannel channel;
+        private ByteBuffer buf;
+
+        /**
+         * @param channel Kênh đích
+         * @param bufferSize Kích thước bộ đệm (byte)
+         */
+        public ChannelWriter(WritableByteChannel channel, int bufferSize) {
+            if (channel == null || bufferSize < 16) {
+                throw new IllegalArgumentException("Kênh không được null và bộ đệm phải từ 16 byte");
+            }
+            this.channel = channel;
+            this.buf = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        /**
+         * @param channel Kênh đích, bộ đệm 64 KiB
+         */
+        public ChannelWriter(WritableByteChannel channel) {
+            this(channel, 1 << 16);
+        }
+
+        /**
+         * @param r Kết quả cần ghi thành một khung FRAME_RESULT
+         * @throws IOException nếu ghi ra kênh lỗi
+         */
+        public void write(RollResult r) throws IOException {
+            int start = begin(maxEncodedSize(r));
+            encode(r, buf);
+            end(start, FRAME_RESULT);
+        }
+
+        /**
+         * @param plan Biểu thức cần ghi thành một khung FRAME_COMPILED
+         * @throws IOException nếu ghi ra kênh lỗi
+         */
+        public void write(CompiledRoll plan) throws IOException {
+            int bound = 5;
+            for (int i = 0; i < plan.size(); i++) {
+                DieRoll dr = plan.get(i);
+                bound += (dr instanceof DiceSum)
+                        ? 6 + MAX_LEAF_SIZE * ((DiceSum) dr).getTerms().size() : MAX_LEAF_SIZE;
+            }
+            int start = begin(bound);
+            encode(plan, buf);
+            end(start, FRAME_COMPILED);
+        }
+
+        /**
+         * Dành chỗ cho header và tối đa bound byte nội dung.
+         *
+         * @return Vị trí bắt đầu của header
+         */
+        private int begin(int bound) throws IOException {
+            int need = 5 + bound;
+            if (buf.remaining() < need) {
+                flush();
+                if (buf.capacity() < need) {
+                    buf = ByteBuffer.allocateDirect(need);
+                }
+            }
+            int start = buf.position();
+            buf.position(start + 5);
+            return start;
+        }
+
+        private void end(int start, byte type) {
+            buf.putInt(start, buf.position() - start - 4);
+            buf.put(start + 4, type);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        /**
+         * Flush rồi đóng kênh.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Đọc lần lượt các khung từ một ReadableByteChannel. Mỗi khung được giải mã ngay trên
+     * bộ đệm đọc, không chép ra mảng riêng. Không an toàn khi dùng từ nhiều luồng.
+     */
+    public static final class ChannelReader implements Closeable {
+        private final ReadableByteChannel channel;
+        private ByteBuffer buf;
+        private RollResult result;
+        private CompiledRoll compiled;
+
+        /**
+         * @param channel Kênh nguồn
+         */
+        public ChannelReader(ReadableByteChannel channel) {
+            if (channel == null) {
+                throw new IllegalArgumentException("Kênh không được null");
+            }
+            this.channel = channel;
+            this.buf = ByteBuffer.allocateDirect(1 << 16);
+            buf.flip();
+        }
+
+        /**
+         * Đọc khung tiếp theo.
+         *
+         * @return FRAME_RESULT (xem getResult()), FRAME_COMPILED (xem getCompiled()), hoặc -1 khi hết dữ liệu
+         * @throws IOException nếu đọc lỗi, kênh kết thúc giữa chừng hoặc khung không hợp lệ
+         */
+        public int next() throws IOException {
+            result = null;
+            compiled = null;
+            if (!fill(4, true)) {
+                return -1;
+            }
+            int len = buf.getInt();
+            if (len < 1 || len > MAX_FRAME) {
+                throw new IOException("Độ dài khung không hợp lệ: " + len);
+            }
+            fill(len, false);
+            int end = buf.position() + len;
+            int limit = buf.limit();
+            int type = buf.get();
+            buf.limit(end);
+            try {
+                switch (type) {
+                    case FRAME_RESULT:
+                        result = decodeResult(buf);
+                        break;
+                    case FRAME_COMPILED:
+                        compiled = decodeCompiled(buf);
+                        break;
+                    default:
+                        throw new IOException("Loại khung không hợp lệ: " + type);
+                }
+                if (buf.hasRemaining()) {
+                    throw new IOException("Khung loại " + type + " còn thừa " + buf.remaining() + " byte");
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Khung hỏng: " + e.getMessage(), e);
+            } finally {
+                buf.limit(limit);
+                buf.position(end);
+            }
+            return type;
+        }
+
+        /**
+         * @return RollResult của khung vừa đọc, hoặc null nếu khung không phải FRAME_RESULT
+         */
+        public RollResult getResult() {
+            return result;
+        }
+
+        /**
+         * @return CompiledRoll của khung vừa đọc, hoặc null nếu khung không phải FRAME_COMPILED
+         */
+        public CompiledRoll getCompiled() {
+            return compiled;
+        }
+
+        /**
+         * Đảm bảo bộ đệm có ít nhất n byte chưa đọc.
+         *
+         * @param eofOk true nếu được phép hết dữ liệu trước byte đầu tiên
+         * @return false nếu kênh đã hết và bộ đệm rỗng (chỉ khi eofOk)
+         */
+        private boolean fill(int n, boolean eofOk) throws IOException {
+            if (buf.remaining() >= n) {
+                return true;
+            }
+            if (buf.capacity() < n) {
+                ByteBuffer bigger = ByteBuffer.allocateDirect(n);
+                bigger.put(buf);
+                buf = bigger;
+            } else {
+                buf.compact();
+            }
+            while (buf.position() < n) {
+                if (channel.read(buf) < 0) {
+                    boolean empty = buf.position() == 0;
+                    buf.flip();
+                    if (eofOk && empty) {
+                        return false;
+                    }
+                    throw new EOFException("Kênh kết thúc giữa khung");
+                }
+            }
+            buf.flip();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
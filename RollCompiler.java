@@ -0,0 +1,326 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Biên dịch kế hoạch tung của một CompiledRoll thành một hidden class
+ * (MethodHandles.Lookup.defineHiddenClass) cài đặt CompiledRoll.Kernel.
+ *
+ * Bytecode được viết tay (JDK 17 chưa có ClassFile API). Phương thức roll(RandomGenerator, int[])
+ * sinh ra là một đoạn thẳng, không rẽ nhánh và không vòng lặp: với mỗi phần i của biểu thức
+ *
+ *   out[i] = bonus_i + (int) FastDice.fill(random, s1, out, off1, n1) + (int) FastDice.fill(...) ...
+ *
+ * với mọi số mặt, vị trí và số xúc xắc là hằng số, nên JIT inline được toàn bộ. Thứ tự gọi RNG
+ * giống hệt DieRoll.rollFaces(), nên kết quả không đổi khi chuyển từ bản thông dịch sang bản
+ * biên dịch.
+ */
+final class RollCompiler {
+
+    private static final Logger logger = Logger.getLogger(RollCompiler.class.getName());
+
+    /**
+     * Giới hạn số lời gọi fill() trong một class, để phương thức sinh ra nằm dưới ngưỡng
+     * HugeMethodLimit (8000 byte) của JIT.
+     */
+    static final int MAX_TERMS = 256;
+
+    private static final String KERNEL = "CompiledRoll$Kernel";
+    private static final String FILL_DESC = "(Ljava/util/random/RandomGenerator;I[III)J";
+    private static final String ROLL_DESC = "(Ljava/util/random/RandomGenerator;[I)V";
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int CLASS_VERSION = 61; // Java 17
+
+    private RollCompiler() {
+    }
+
+    /**
+     * @param rolls Các phần của kế hoạch, theo thứ tự
+     * @return Kernel đã biên dịch, hoặc null nếu kế hoạch có thành phần không biên dịch được
+     *         (lớp con DieRoll khác, quá nhiều số hạng, ...)
+     */
+    static CompiledRoll.Kernel compile(DieRoll[] rolls) {
+        List<DieRoll[]> parts = flatten(rolls);
+        if (parts == null) {
+            return null;
+        }
+        try {
+            byte[] bytes = generate(parts);
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClass(bytes, true);
+            return (CompiledRoll.Kernel) lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            if (e instanceof Error && !(e instanceof LinkageError)) {
+                throw (Error) e;
+            }
+            logger.log(Level.WARNING, "Không biên dịch được kế hoạch tung", e);
+            return null;
+        }
+    }
+
+    /**
+     * Mỗi phần thành danh sách số hạng DieRoll thuần; null nếu không biên dịch được.
+     */
+    private static List<DieRoll[]> flatten(DieRoll[] rolls) {
+        List<DieRoll[]> parts = new ArrayList<>(rolls.length);
+        int count = 0;
+        long faces = rolls.length;
+        for (DieRoll dr : rolls) {
+            DieRoll[] terms;
+            if (dr instanceof DiceSum) {
+                terms = ((DiceSum) dr).getTerms().toArray(new DieRoll[0]);
+            } else {
+                terms = new DieRoll[] { dr };
+            }
+            for (DieRoll t : terms) {
+                if (t.getClass() != DieRoll.class) {
+                    return null;
+                }
+                faces += t.getNumDice();
+            }
+            count += terms.length;
+            if (count > MAX_TERMS || faces > Integer.MAX_VALUE) {
+                return null;
+            }
+            parts.add(terms);
+        }
+        return parts;
+    }
+
+    private static byte[] generate(List<DieRoll[]> parts) {
+        ConstantPool cp = new ConstantPool();
+        int thisClass = cp.classRef("CompiledRollKernel");
+        int objectClass = cp.classRef("java/lang/Object");
+        int kernelClass = cp.classRef(KERNEL);
+        int objectInit = cp.methodRef(objectClass, "<init>", "()V", false);
+        int fill = cp.methodRef(cp.classRef("FastDice"), "fill", FILL_DESC, false);
+        int initName = cp.utf8("<init>");
+        int initDesc = cp.utf8("()V");
+        int rollName = cp.utf8("roll");
+        int rollDesc = cp.utf8(ROLL_DESC);
+        int codeAttr = cp.utf8("Code");
+
+        Code init = new Code();
+        init.op(0x2a);                 // aload_0
+        init.op(0xb7).u2(objectInit);  // invokespecial Object.<init>
+        init.op(0xb1);                 // return
+
+        // Biến cục bộ: 0 this, 1 random, 2 out.
+        Code roll = new Code();
+        int offset = parts.size();
+        for (int i = 0; i < parts.size(); i++) {
+            DieRoll[] terms = parts.get(i);
+            int bonus = 0;
+            for (DieRoll t : terms) {
+                bonus += t.getBonus();
+            }
+            roll.op(0x2c);             // aload_2
+            roll.iconst(cp, i);
+            roll.iconst(cp, bonus);
+            for (DieRoll t : terms) {
+                roll.op(0x2b);         // aload_1
+                roll.iconst(cp, t.getNumSides());
+                roll.op(0x2c);         // aload_2
+                roll.iconst(cp, offset);
+                roll.iconst(cp, t.getNumDice());
+                roll.op(0xb8).u2(fill); // invokestatic FastDice.fill
+                roll.op(0x88);         // l2i
+                roll.op(0x60);         // iadd
+                offset += t.getNumDice();
+            }
+            roll.op(0x4f);             // iastore
+        }
+        roll.op(0xb1);                 // return
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(256 + roll.size());
+        try (DataOutputStream out = new DataOutputStream(buf)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_VERSION);
+            cp.write(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(objectClass);
+            out.writeShort(1);
+            out.writeShort(kernelClass);
+            out.writeShort(0);         // fields
+            out.writeShort(2);         // methods
+            writeMethod(out, initName, initDesc, codeAttr, init, 1, 1);
+            // Ngăn xếp sâu nhất: out, i, tổng, random, sides, out, offset, n.
+            writeMethod(out, rollName, rollDesc, codeAttr, roll, 8, 3);
+            out.writeShort(0);         // attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buf.toByteArray();
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int desc, int codeAttr,
+                                    Code code, int maxStack, int maxLocals) throws IOException {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(desc);
+        out.writeShort(1);
+        out.writeShort(codeAttr);
+        out.writeInt(12 + code.size());
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.size());
+        code.writeTo(out);
+        out.writeShort(0);             // exception table
+        out.writeShort(0);             // attributes
+    }
+
+    /**
+     * Bảng hằng số tối giản: chỉ các loại entry mà generate() cần, có gộp entry trùng.
+     */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> index = new HashMap<>();
+        private int next = 1;
+
+        int utf8(String s) {
+            return entry("U" + s, () -> {
+                out.writeByte(1);
+                out.writeUTF(s);
+            });
+        }
+
+        int integer(int v) {
+            return entry("I" + v, () -> {
+                out.writeByte(3);
+                out.writeInt(v);
+            });
+        }
+
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return entry("C" + internalName, () -> {
+                out.writeByte(7);
+                out.writeShort(name);
+            });
+        }
+
+        int methodRef(int owner, String name, String desc, boolean itf) {
+            int n = utf8(name);
+            int d = utf8(desc);
+            int nat = entry("N" + name + desc, () -> {
+                out.writeByte(12);
+                out.writeShort(n);
+                out.writeShort(d);
+            });
+            return entry("M" + owner + "." + name + desc, () -> {
+                out.writeByte(itf ? 11 : 10);
+                out.writeShort(owner);
+                out.writeShort(nat);
+            });
+        }
+
+        private int entry(String key, Emitter emitter) {
+            Integer existing = index.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                emitter.emit();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (next > 0xFFFF) {
+                throw new IllegalStateException("Bảng hằng số quá lớn");
+            }
+            index.put(key, next);
+            return next++;
+        }
+
+        void write(DataOutputStream dst) throws IOException {
+            dst.writeShort(next);
+            bytes.writeTo(dst);
+        }
+
+        private interface Emitter {
+            void emit() throws IOException;
+        }
+    }
+
+    /**
+     * Bộ đệm bytecode của một phương thức.
+     */
+    private static final class Code {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Code op(int opcode) {
+            bytes.write(opcode);
+            return this;
+        }
+
+        Code u2(int v) {
+            bytes.write(v >>> 8);
+            bytes.write(v);
+            return this;
+        }
+
+        /**
+         * Đẩy một hằng int bằng lệnh ngắn nhất: iconst_*, bipush, sipush hoặc ldc / ldc_w.
+         */
+        void iconst(ConstantPool cp, int v) {
+            if (v >= -1 && v <= 5) {
+                op(0x03 + v);
+            } else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+                op(0x10).op(v & 0xFF);
+            } else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+                op(0x11).u2(v & 0xFFFF);
+            } else {
+                int idx = cp.integer(v);
+                if (idx < 256) {
+                    op(0x12).op(idx);
+                } else {
+                    op(0x13).u2(idx);
+                }
+            }
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            bytes.writeTo(out);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Bộ điều phối tung xúc xắc: nhận DieRoll từ nhiều luồng và tung theo lô trên các luồng worker.
+ *
+ * Có nhiều shard, mỗi shard là một MpscRingBuffer có giới hạn (không khoá) và đúng một worker.
+ * Luồng gọi luôn rơi vào cùng một shard (theo id luồng), nên thứ tự các request của một luồng
+ * được giữ nguyên. Worker lấy tối đa BATCH request mỗi lần, tung hết bằng generator riêng của
+ * nó (tạo một lần, không tranh chấp, không tra ThreadLocal) rồi mới hoàn tất các future.
+ * Worker chỉ park khi hàng đợi rỗng; producer chỉ unpark khi worker thực sự đang ngủ.
+ *
+ * Khi shard đầy, hành vi theo Overflow:
+ * - BLOCK: luồng gọi chờ (quay rồi park ngắn) tới khi có chỗ;
+ * - DROP: future trả về bị hoàn tất ngay với RejectedExecutionException;
+ * - CALLER_RUNS: luồng gọi tự tung với RandomSources.threadLocal().
+ *
+ * Lỗi (kể cả Error) khi tung một request chỉ làm hỏng future của request đó; lỗi trong callback
+ * chỉ được ghi log. Nếu worker vẫn phải dừng vì lỗi ngoài dự kiến, mọi request trong lô và trong
+ * hàng đợi của shard đó bị hoàn tất với lỗi, và shard từ chối request mới thay vì để luồng gọi
+ * chờ mãi. close() gọi được từ callback (chạy trên worker): khi đó nó không chờ các worker.
+ */
+public final class RollDispatcher implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(RollDispatcher.class.getName());
+
+    /** Số request tối đa worker xử lý trong một lô. */
+    static final int BATCH = 256;
+
+    private static final int SPINS = 64;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+
+    /**
+     * Cách xử lý khi hàng đợi của shard đầy.
+     */
+    public enum Overflow {
+        BLOCK, DROP, CALLER_RUNS
+    }
+
+    private final Shard[] shards;
+    private final Overflow overflow;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Mỗi nhân CPU một shard, mỗi shard 1024 chỗ, chờ khi đầy.
+     */
+    public RollDispatcher() {
+        this(Runtime.getRuntime().availableProcessors(), 1024, Overflow.BLOCK);
+    }
+
+    /**
+     * @param shardCount Số shard (số luồng worker), lớn hơn 0
+     * @param capacity Dung lượng hàng đợi của mỗi shard, làm tròn lên luỹ thừa của 2
+     * @param overflow Cách xử lý khi hàng đợi đầy
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public RollDispatcher(int shardCount, int capacity, Overflow overflow) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Số shard phải lớn hơn 0");
+        }
+        if (overflow == null) {
+            throw new IllegalArgumentException("Overflow không được null");
+        }
+        this.overflow = overflow;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(capacity);
+        }
+        for (int i = 0; i < shardCount; i++) {
+            Thread t = new Thread(shards[i], "jdice-dispatch-" + i);
+            t.setDaemon(true);
+            shards[i].worker = t;
+            t.start();
+        }
+    }
+
+    /**
+     * Gửi một yêu cầu tung.
+     *
+     * @param roll DieRoll cần tung
+     * @return Future hoàn tất với kết quả, hoặc với RejectedExecutionException nếu request
+     *         bị bỏ (DROP) hoặc bộ điều phối đã đóng
+     * @throws IllegalArgumentException nếu roll null
+     */
+    public CompletableFuture<RollResult> submit(DieRoll roll) {
+        if (roll == null) {
+            throw new IllegalArgumentException("DieRoll không được null");
+        }
+        Request req = new Request(roll);
+        if (closed) {
+            req.completeExceptionally(new RejectedExecutionException("RollDispatcher đã đóng"));
+            return req;
+        }
+        Shard shard = shards[(int) ((Thread.currentThread().getId() & Long.MAX_VALUE) % shards.length)];
+        if (shard.failure != null) {
+            req.completeExceptionally(new RejectedExecutionException("Worker của shard đã dừng", shard.failure));
+            return req;
+        }
+        if (!shard.queue.offer(req)) {
+            switch (overflow) {
+                case DROP:
+                    dropped.increment();
+                    req.completeExceptionally(new RejectedExecutionException("Hàng đợi tung xúc xắc đầy"));
+                    return req;
+                case CALLER_RUNS:
+                    callerRuns.increment();
+                    try {
+                        req.complete(roll.roll(RandomSources.threadLocal()));
+                    } catch (RuntimeException e) {
+                        req.completeExceptionally(e);
+                    }
+                    return req;
+                default:
+                    if (!offerBlocking(shard, req)) {
+                        req.completeExceptionally(new RejectedExecutionException(
+                                closed ? "RollDispatcher đã đóng" : "Worker của shard đã dừng", shard.failure));
+                        return req;
+                    }
+                    break;
+            }
+        }
+        shard.wake();
+        if (closed || shard.failure != null) {
+            // close() (hoặc worker chết) có thể đã xảy ra trước khi request vào hàng đợi.
+            shard.rejectLeftovers();
+        }
+        return req;
+    }
+
+    private boolean offerBlocking(Shard shard, Request req) {
+        int spins = 0;
+        while (!shard.queue.offer(req)) {
+            if (closed || shard.failure != null) {
+                return false;
+            }
+            shard.wake();
+            if (++spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Số request bị bỏ do hàng đợi đầy (chính sách DROP)
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return Số request được luồng gọi tự tung (chính sách CALLER_RUNS)
+     */
+    public long getCallerRunsCount() {
+        return callerRuns.sum();
+    }
+
+    /**
+     * @return Số request đang chờ trong mọi shard (xấp xỉ)
+     */
+    public int getQueuedCount() {
+        int n = 0;
+        for (Shard s : shards) {
+            n += s.queue.size();
+        }
+        return n;
+    }
+
+    /**
+     * @return true nếu luồng hiện tại là worker của bộ điều phối này (đang chạy callback)
+     */
+    private boolean onWorkerThread() {
+        Thread t = Thread.currentThread();
+        for (Shard s : shards) {
+            if (s.worker == t) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ngừng nhận request mới, chờ các worker tung hết những request đã vào hàng đợi.
+     * Gọi từ một callback (trên worker) thì không chờ: các worker tự tung hết hàng đợi rồi dừng.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Shard s : shards) {
+            LockSupport.unpark(s.worker);
+        }
+        for (Shard s : shards) {
+            s.rejectLeftovers();
+        }
+    }
+
+    /**
+     * Request là chính future trả cho người gọi, để mỗi lần submit chỉ cấp phát một đối tượng.
+     */
+    private static final class Request extends CompletableFuture<RollResult> {
+        final DieRoll roll;
+        RollResult result;
+        Throwable error;
+
+        Request(DieRoll roll) {
+            this.roll = roll;
+        }
+    }
+
+    private final class Shard implements Runnable {
+        final MpscRingBuffer<Request> queue;
+        final Request[] batch = new Request[BATCH];
+        volatile boolean sleeping;
+        volatile Throwable failure;
+        Thread worker;
+
+        Shard(int capacity) {
+            this.queue = new MpscRingBuffer<>(capacity);
+        }
+
+        /**
+         * Gọi sau khi offer thành công. Worker ghi sleeping rồi mới kiểm tra hàng đợi, producer
+         * ghi hàng đợi (CAS) rồi mới đọc sleeping, nên ít nhất một bên thấy bên kia.
+         */
+        void wake() {
+            if (sleeping) {
+                LockSupport.unpark(worker);
+            }
+        }
+
+        /**
+         * Sau khi đóng: chờ worker dừng rồi hoàn tất mọi request còn sót với lỗi.
+         * Worker đã dừng nên luồng giữ khoá là consumer duy nhất của hàng đợi.
+         *
+         * Trên một worker (từ callback) thì không join: worker có thể là chính luồng này, hoặc
+         * đang chờ luồng này trong close() của nó. Khi đó chỉ dọn nếu worker đã dừng.
+         */
+        void rejectLeftovers() {
+            if (onWorkerThread()) {
+                if (worker.isAlive()) {
+                    return;
+                }
+            } else {
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        worker.join();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (this) {
+                Request r;
+                while ((r = queue.poll()) != null) {
+                    r.completeExceptionally(new RejectedExecutionException(
+                            (failure != null) ? "Worker của shard đã dừng" : "RollDispatcher đã đóng", failure));
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                loop();
+            } catch (Throwable t) {
+                failure = t;
+                LOGGER.log(Level.SEVERE, "Worker của RollDispatcher dừng do lỗi", t);
+                for (int i = 0; i < BATCH; i++) {
+                    if (batch[i] != null) {
+                        batch[i].completeExceptionally(t);
+                        batch[i] = null;
+                    }
+                }
+                synchronized (this) {
+                    Request r;
+                    while ((r = queue.poll()) != null) {
+                        r.completeExceptionally(new RejectedExecutionException("Worker của shard đã dừng", t));
+                    }
+                }
+            }
+        }
+
+        private void loop() {
+            RandomGenerator random = RandomGeneratorFactory.of(RandomSources.DEFAULT_ALGORITHM).create();
+            int idle = 0;
+            while (true) {
+                int n = 0;
+                Request r;
+                while (n < BATCH && (r = queue.poll()) != null) {
+                    batch[n++] = r;
+                }
+                if (n > 0) {
+                    idle = 0;
+                    process(random, n);
+                    continue;
+                }
+                if (closed && queue.isEmpty()) {
+                    return;
+                }
+                if (++idle < SPINS) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                sleeping = true;
+                if (queue.isEmpty() && !closed) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                sleeping = false;
+            }
+        }
+
+        /**
+         * Tung cả lô trước, rồi mới hoàn tất các future: vòng tung không bị xen bởi các callback
+         * của người gọi (CompletableFuture chạy callback đồng bộ trên luồng hoàn tất).
+         */
+        private void process(RandomGenerator random, int n) {
+            for (int i = 0; i < n; i++) {
+                Request req = batch[i];
+                try {
+                    req.result = req.roll.roll(random);
+                } catch (Throwable e) {
+                    // Kể cả Error (StackOverflowError, OutOfMemoryError): chỉ request này hỏng.
+                    req.error = e;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                Request req = batch[i];
+                batch[i] = null;
+                try {
+                    if (req.error != null) {
+                        req.completeExceptionally(req.error);
+                    } else {
+                        req.complete(req.result);
+                    }
+                } catch (Throwable e) {
+                    LOGGER.log(Level.WARNING, "Callback của request tung xúc xắc ném lỗi", e);
+                }
+                req.result = null;
+                req.error = null;
+            }
+        }
+    }
+}
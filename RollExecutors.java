@@ -0,0 +1,78 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Executor cho các tác vụ tung xúc xắc chạy nền (GUI, server).
+ *
+ * Dùng virtual thread (một thread cho mỗi tác vụ) khi JVM hỗ trợ (Java 21 trở lên).
+ * Mã được biên dịch với --release 17 nên phương thức này được tra bằng reflection;
+ * trên JVM cũ hơn thì rơi về một cached thread pool gồm các daemon thread có tên.
+ */
+public final class RollExecutors {
+
+    private static final Logger LOGGER = Logger.getLogger(RollExecutors.class.getName());
+
+    private RollExecutors() {
+    }
+
+    /**
+     * @param name Tiền tố tên thread khi không có virtual thread
+     * @return Executor mới; người gọi chịu trách nhiệm shutdown()
+     */
+    public static ExecutorService newRollExecutor(String name) {
+        try {
+            Object executor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LOGGER.fine("Dùng virtual thread cho " + name);
+            return (ExecutorService) executor;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Không có virtual thread, dùng cached thread pool cho " + name, e);
+        }
+        return Executors.newCachedThreadPool(daemonFactory(name));
+    }
+
+    /**
+     * @return true nếu JVM hiện tại có virtual thread
+     */
+    public static boolean hasVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ThreadFactory daemonFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
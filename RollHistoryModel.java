@@ -0,0 +1,178 @@
+import javax.swing.AbstractListModel;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * ListModel có giới hạn cho lịch sử kết quả của JDice, dòng mới nhất ở vị trí 0.
+ *
+ * Các dòng nằm trong một ring buffer kích thước cố định: thêm một khối là O(số dòng của khối),
+ * không dịch mảng, và chỉ bắn fireIntervalAdded / fireIntervalRemoved cho đúng các dòng thay
+ * đổi thay vì dựng lại cả model như setListData(). Khi đầy, các dòng cũ nhất bị đẩy ra và
+ * (nếu đã setSpill) được ghi xuống một Writer theo thứ tự từ cuối danh sách lên (cũ trước mới sau).
+ *
+ * Dòng có thể là bất kỳ đối tượng nào; chuỗi hiển thị chỉ được tạo khi JList hỏi tới
+ * (getElementAt), nên một RollResult chưa từng được cuộn tới thì không bao giờ bị toString().
+ * Mọi phương thức phải được gọi trên EDT.
+ */
+public class RollHistoryModel extends AbstractListModel<String> {
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(RollHistoryModel.class.getName());
+
+    private final Object[] buf;
+    private int next;
+    private int size;
+    private transient Writer spill;
+
+    /**
+     * @param capacity Số dòng tối đa giữ trong bộ nhớ
+     * @throws IllegalArgumentException nếu capacity nhỏ hơn 1
+     */
+    public RollHistoryModel(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Dung lượng lịch sử phải lớn hơn 0");
+        }
+        this.buf = new Object[capacity];
+    }
+
+    /**
+     * Ghi các dòng bị đẩy ra (và các dòng bị clear()) xuống writer, mỗi dòng một hàng.
+     * Lỗi ghi chỉ được log và tắt spill, không làm hỏng GUI.
+     *
+     * @param writer Writer đích, hoặc null để tắt
+     */
+    public void setSpill(Writer writer) {
+        this.spill = writer;
+    }
+
+    /**
+     * @return Số dòng tối đa giữ trong bộ nhớ
+     */
+    public int getCapacity() {
+        return buf.length;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return String.valueOf(buf[slot(index)]);
+    }
+
+    /**
+     * Chèn một khối lên đầu danh sách; lines.get(0) sẽ nằm ở vị trí 0.
+     * Nếu khối dài hơn dung lượng thì chỉ giữ phần đầu, phần còn lại đi thẳng xuống spill.
+     *
+     * @param lines Các dòng của khối, theo thứ tự hiển thị
+     * @return Số dòng đã chèn vào model
+     */
+    public int addBlock(List<?> lines) {
+        int k = Math.min(lines.size(), buf.length);
+        if (k == 0) {
+            return 0;
+        }
+        int evict = size + k - buf.length;
+        if (evict > 0) {
+            int oldSize = size;
+            for (int i = oldSize - 1; i >= oldSize - evict; i--) {
+                spill(buf[slot(i)]);
+                buf[slot(i)] = null;
+            }
+            size -= evict;
+            fireIntervalRemoved(this, size, oldSize - 1);
+        }
+        // Phần bị cắt của một khối quá dài: cũ nhất là các dòng cuối khối.
+        for (int i = lines.size() - 1; i >= k; i--) {
+            spill(lines.get(i));
+        }
+        for (int i = k - 1; i >= 0; i--) {
+            buf[next] = lines.get(i);
+            next = (next + 1) % buf.length;
+        }
+        size += k;
+        if (evict > 0 || lines.size() > k) {
+            flushSpill();
+        }
+        fireIntervalAdded(this, 0, k - 1);
+        return k;
+    }
+
+    /**
+     * Xoá toàn bộ lịch sử trong bộ nhớ (vẫn ghi xuống spill nếu có).
+     */
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        int oldSize = size;
+        for (int i = oldSize - 1; i >= 0; i--) {
+            spill(buf[slot(i)]);
+        }
+        flushSpill();
+        Arrays.fill(buf, null);
+        next = 0;
+        size = 0;
+        fireIntervalRemoved(this, 0, oldSize - 1);
+    }
+
+    private int slot(int index) {
+        int s = next - 1 - index;
+        return s < 0 ? s + buf.length : s;
+    }
+
+    private void spill(Object line) {
+        if (spill == null) {
+            return;
+        }
+        try {
+            spill.write(String.valueOf(line));
+            spill.write(System.lineSeparator());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Không ghi được lịch sử, tắt spill", e);
+            spill = null;
+        }
+    }
+
+    private void flushSpill() {
+        if (spill == null) {
+            return;
+        }
+        try {
+            spill.flush();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Không ghi được lịch sử, tắt spill", e);
+            spill = null;
+        }
+    }
+}
@@ -0,0 +1,455 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Số liệu vận hành của JDice: số lần tung / số xúc xắc, độ trễ phân tích cú pháp, lỗi phân tích
+ * theo loại, hiệu quả ParseCache và độ trễ xử lý request của giao diện (GUI, HTTP).
+ *
+ * Ghi số liệu chỉ tốn vài lệnh LongAdder.increment() / add() (mỗi luồng cộng vào ô riêng, không
+ * tranh chấp), nên có thể bật thường trực. Tắt hẳn bằng -Djdice.metrics=false: cờ là hằng số
+ * nên JIT loại bỏ luôn nhánh ghi.
+ *
+ * Đọc số liệu qua JMX (registerMBean(), ObjectName "jdice:type=RollMetrics") hoặc dạng văn bản
+ * của Prometheus (writePrometheus(), RollServer phục vụ ở GET /metrics).
+ */
+public final class RollMetrics implements RollMetricsMBean {
+
+    private static final Logger LOGGER = Logger.getLogger(RollMetrics.class.getName());
+
+    /**
+     * false nếu chạy với -Djdice.metrics=false.
+     */
+    static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("jdice.metrics"));
+
+    /**
+     * Nguồn của một request ở tầng giao diện.
+     */
+    enum Frontend {
+        GUI, HTTP
+    }
+
+    private static final RollMetrics INSTANCE = new RollMetrics();
+
+    private static final Rate rolls = new Rate();
+    private static final Rate dice = new Rate();
+    private static final LatencyHistogram parseLatency = new LatencyHistogram();
+    private static final LongAdder[] parseFailures = adders(DiceParseException.Kind.values().length);
+    private static final LatencyHistogram[] frontendLatency = {
+        new LatencyHistogram(), new LatencyHistogram()
+    };
+
+    private static boolean registered;
+
+    private RollMetrics() {
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] a = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = new LongAdder();
+        }
+        return a;
+    }
+
+    /**
+     * @return Đối tượng MBean dùng chung
+     */
+    public static RollMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Đăng ký MBean với platform MBeanServer; gọi nhiều lần không sao.
+     */
+    public static synchronized void registerMBean() {
+        if (registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(INSTANCE, new ObjectName("jdice:type=RollMetrics"));
+        } catch (InstanceAlreadyExistsException e) {
+            // Đã có (ví dụ class được nạp bởi một class loader khác); giữ bản cũ.
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Không đăng ký được MBean RollMetrics", e);
+            return;
+        }
+        registered = true;
+    }
+
+    // ---- Ghi số liệu (gọi từ DieRoll, CompiledRoll, DiceParser, JDice, RollServer) ----
+
+    static void rolled(long numDice) {
+        if (ENABLED) {
+            rolls.count.increment();
+            dice.count.add(numDice);
+        }
+    }
+
+    static void rolled(long numRolls, long numDice) {
+        if (ENABLED) {
+            rolls.count.add(numRolls);
+            dice.count.add(numDice);
+        }
+    }
+
+    static void parsed(long nanos) {
+        if (ENABLED) {
+            parseLatency.record(nanos);
+        }
+    }
+
+    static void parseFailed(DiceParseException.Kind kind) {
+        if (ENABLED) {
+            parseFailures[kind.ordinal()].increment();
+        }
+    }
+
+    static void request(Frontend frontend, long nanos) {
+        if (ENABLED) {
+            frontendLatency[frontend.ordinal()].record(nanos);
+        }
+    }
+
+    // ---- JMX ----
+
+    @Override
+    public long getRollCount() {
+        return rolls.count.sum();
+    }
+
+    @Override
+    public long getDiceCount() {
+        return dice.count.sum();
+    }
+
+    @Override
+    public double getRollsPerSecond() {
+        return rolls.perSecond();
+    }
+
+    @Override
+    public double getDicePerSecond() {
+        return dice.perSecond();
+    }
+
+    @Override
+    public long getParseCount() {
+        return parseLatency.getCount();
+    }
+
+    @Override
+    public double getParseLatencyMeanMicros() {
+        long n = parseLatency.getCount();
+        return (n == 0) ? 0 : parseLatency.getSum() / 1e3 / n;
+    }
+
+    @Override
+    public double getParseLatencyP50Micros() {
+        return parseLatency.getPercentile(0.5) / 1e3;
+    }
+
+    @Override
+    public double getParseLatencyP99Micros() {
+        return parseLatency.getPercentile(0.99) / 1e3;
+    }
+
+    @Override
+    public double getParseLatencyP999Micros() {
+        return parseLatency.getPercentile(0.999) / 1e3;
+    }
+
+    @Override
+    public double getParseLatencyMaxMicros() {
+        return parseLatency.getMax() / 1e3;
+    }
+
+    @Override
+    public long getParseFailureCount() {
+        long n = 0;
+        for (LongAdder a : parseFailures) {
+            n += a.sum();
+        }
+        return n;
+    }
+
+    @Override
+    public Map<String, Long> getParseFailuresByKind() {
+        Map<String, Long> m = new TreeMap<>();
+        for (DiceParseException.Kind k : DiceParseException.Kind.values()) {
+            m.put(k.name(), parseFailures[k.ordinal()].sum());
+        }
+        return m;
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        return DiceParser.getCache().getHitCount();
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        return DiceParser.getCache().getMissCount();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        ParseCache cache = DiceParser.getCache();
+        long hits = cache.getHitCount();
+        long total = hits + cache.getMissCount();
+        return (total == 0) ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getGuiRequestCount() {
+        return frontendLatency[Frontend.GUI.ordinal()].getCount();
+    }
+
+    @Override
+    public double getGuiLatencyP99Micros() {
+        return frontendLatency[Frontend.GUI.ordinal()].getPercentile(0.99) / 1e3;
+    }
+
+    @Override
+    public long getHttpRequestCount() {
+        return frontendLatency[Frontend.HTTP.ordinal()].getCount();
+    }
+
+    @Override
+    public double getHttpLatencyP99Micros() {
+        return frontendLatency[Frontend.HTTP.ordinal()].getPercentile(0.99) / 1e3;
+    }
+
+    @Override
+    public String dumpPrometheus() {
+        StringBuilder sb = new StringBuilder(2048);
+        writePrometheus(sb);
+        return sb.toString();
+    }
+
+    // ---- Prometheus ----
+
+    /**
+     * Ghi toàn bộ số liệu theo định dạng văn bản của Prometheus (version 0.0.4).
+     *
+     * @param out Đích ghi
+     * @throws UncheckedIOException nếu out ném IOException
+     */
+    public static void writePrometheus(Appendable out) {
+        try {
+            counter(out, "jdice_rolls_total", "Number of DieRoll rolls", rolls.count.sum());
+            counter(out, "jdice_dice_total", "Number of dice rolled", dice.count.sum());
+
+            summary(out, "jdice_parse_seconds", "Latency of uncached expression parsing", null, parseLatency, true);
+
+            header(out, "jdice_parse_failures_total", "Parse failures by error kind", "counter");
+            for (DiceParseException.Kind k : DiceParseException.Kind.values()) {
+                out.append("jdice_parse_failures_total{kind=\"").append(k.name().toLowerCase(Locale.ROOT))
+                        .append("\"} ").append(Long.toString(parseFailures[k.ordinal()].sum())).append('\n');
+            }
+
+            ParseCache cache = DiceParser.getCache();
+            counter(out, "jdice_parse_cache_hits_total", "Parse cache hits", cache.getHitCount());
+            counter(out, "jdice_parse_cache_misses_total", "Parse cache misses", cache.getMissCount());
+            counter(out, "jdice_parse_cache_evictions_total", "Parse cache evictions", cache.getEvictionCount());
+            header(out, "jdice_parse_cache_size", "Entries in the parse cache", "gauge");
+            out.append("jdice_parse_cache_size ").append(Integer.toString(cache.size())).append('\n');
+
+            boolean first = true;
+            for (Frontend f : Frontend.values()) {
+                String label = "frontend=\"" + f.name().toLowerCase(Locale.ROOT) + "\"";
+                summary(out, "jdice_request_seconds", "Request handling latency by frontend", label,
+                        frontendLatency[f.ordinal()], first);
+                first = false;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void header(Appendable out, String name, String help, String type) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(Appendable out, String name, String help, long value) throws IOException {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(Long.toString(value)).append('\n');
+    }
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private static void summary(Appendable out, String name, String help, String label,
+                                LatencyHistogram h, boolean withHeader) throws IOException {
+        if (withHeader) {
+            header(out, name, help, "summary");
+        }
+        String prefix = (label == null) ? "" : label + ",";
+        for (double q : QUANTILES) {
+            out.append(name).append("{").append(prefix).append("quantile=\"").append(Double.toString(q))
+                    .append("\"} ").append(seconds(h.getPercentile(q))).append('\n');
+        }
+        String suffix = (label == null) ? " " : "{" + label + "} ";
+        out.append(name).append("_sum").append(suffix).append(seconds(h.getSum())).append('\n');
+        out.append(name).append("_count").append(suffix).append(Long.toString(h.getCount())).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    /**
+     * Bộ đếm kèm tốc độ trung bình trượt mũ khoảng một phút. Tốc độ được cập nhật lười khi đọc
+     * (tối đa mỗi TICK_NANOS một lần), nên việc ghi chỉ là LongAdder.
+     */
+    private static final class Rate {
+        private static final long TICK_NANOS = 5_000_000_000L;
+        private static final double WINDOW_NANOS = 60e9;
+
+        final LongAdder count = new LongAdder();
+        private final long start = System.nanoTime();
+        private long lastTick = start;
+        private long lastCount;
+        private double rate = Double.NaN;
+
+        synchronized double perSecond() {
+            long now = System.nanoTime();
+            long elapsed = now - lastTick;
+            if (elapsed >= TICK_NANOS) {
+                long c = count.sum();
+                double instant = (c - lastCount) * 1e9 / elapsed;
+                if (Double.isNaN(rate)) {
+                    rate = instant;
+                } else {
+                    rate += (1 - Math.exp(-elapsed / WINDOW_NANOS)) * (instant - rate);
+                }
+                lastTick = now;
+                lastCount = c;
+            }
+            if (Double.isNaN(rate)) {
+                // Chưa đủ một tick: trung bình từ lúc bắt đầu.
+                long since = Math.max(1, now - start);
+                return count.sum() * 1e9 / since;
+            }
+            return rate;
+        }
+    }
+
+    /**
+     * Histogram độ trễ kiểu HdrHistogram (log-linear): mỗi luỹ thừa của 2 chia thành 2^SUB_BITS
+     * ô bằng nhau, nên sai số tương đối của percentile không quá 1 / 2^SUB_BITS (12.5%) với mọi
+     * giá trị từ 1 ns đến Long.MAX_VALUE. Mỗi ô là một LongAdder.
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+        private final LongAdder[] buckets = adders(BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            buckets[index(nanos)].increment();
+            sum.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        static int index(long v) {
+            if (v < SUB) {
+                return (int) v;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+            return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+        }
+
+        /**
+         * @return Giá trị lớn nhất thuộc ô i
+         */
+        static long upperBound(int i) {
+            if (i < SUB) {
+                return i;
+            }
+            int shift = (i >>> SUB_BITS) - 1;
+            long lower = (long) (SUB + (i & (SUB - 1))) << shift;
+            return lower + ((1L << shift) - 1);
+        }
+
+        long getCount() {
+            long n = 0;
+            for (LongAdder b : buckets) {
+                n += b.sum();
+            }
+            return n;
+        }
+
+        long getSum() {
+            return sum.sum();
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @param q Phân vị trong [0, 1]
+         * @return Cận trên của ô chứa phân vị q (không vượt quá max), 0 nếu chưa có mẫu
+         */
+        long getPercentile(double q) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), getMax());
+                }
+            }
+            return getMax();
+        }
+    }
+}
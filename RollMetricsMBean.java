@@ -0,0 +1,72 @@
+import java.util.Map;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Giao diện JMX của RollMetrics (ObjectName "jdice:type=RollMetrics").
+ * Thời gian tính bằng micro giây; tốc độ là trung bình trượt khoảng một phút.
+ */
+public interface RollMetricsMBean {
+
+    long getRollCount();
+
+    long getDiceCount();
+
+    double getRollsPerSecond();
+
+    double getDicePerSecond();
+
+    long getParseCount();
+
+    double getParseLatencyMeanMicros();
+
+    double getParseLatencyP50Micros();
+
+    double getParseLatencyP99Micros();
+
+    double getParseLatencyP999Micros();
+
+    double getParseLatencyMaxMicros();
+
+    long getParseFailureCount();
+
+    Map<String, Long> getParseFailuresByKind();
+
+    long getCacheHitCount();
+
+    long getCacheMissCount();
+
+    double getCacheHitRatio();
+
+    long getGuiRequestCount();
+
+    double getGuiLatencyP99Micros();
+
+    long getHttpRequestCount();
+
+    double getHttpLatencyP99Micros();
+
+    /**
+     * @return Toàn bộ số liệu ở dạng văn bản của Prometheus
+     */
+    String dumpPrometheus();
+}
@@ -1,6 +1,5 @@
 import java.util.*;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.random.RandomGenerator;
 
 /*thanhhang
  JDice: Java Dice Rolling Program
@@ -23,94 +22,204 @@ import java.util.logging.Logger;
  
  */
 
-public class RollResult { // Lỗi cú pháp: Thêm dấu '{' mở đầu classclass
+/**
+ * Kết quả của một lần tung xúc xắc: các mặt đã tung, modifier (điểm thưởng) và tổng.
+ *
+ * Các mặt được lưu trong một mảng int nguyên thuỷ cùng với tổng cộng dồn, nên
+ * addResult() và getTotal() không boxing, không tạo Stream. Đối tượng có thể dùng
+ * lại cho nhiều lần tung qua reset() (xem DieRoll.roll(RandomGenerator, RollResult)).
+ * Đây là lớp RollResult duy nhất; bản sao lồng trong DieRoll.java đã được gộp vào đây.
+ *
+ * Các hàm ghi (addResult, addModifier, reset, ...) chỉ dùng trong gói, khi DieRoll đang tung;
+ * kết quả trả cho người gọi không sửa được qua API công khai. Một RollResult truyền vào
+ * roll(RandomGenerator, RollResult) là bộ đệm riêng của người gọi, không dùng chung giữa các luồng.
+ */
+public class RollResult {
+
+    private static final int[] NO_FACES = new int[0];
+
+    private int total;
+    private int modifier;
+    private int[] faces;
+    private int count;
+
+    RollResult(int total, int modifier, int[] faces, int count) {
+        this.total = total;
+        this.modifier = modifier;
+        this.faces = faces;
+        this.count = count;
+    }
 
-	/**
-	  *Refactor: Thêm từ khóa "private" cho các biến instance
-	  *Lý do: Baỏ vệ tính đóng gói (encapsulation), chỉ cho phép truy cập trong class.
-	 */
     /**
-     * Logger để ghi log các hành động trong class
+     * @param bonus Điểm thưởng (modifier) cộng vào tổng
      */
-    private static final Logger logger = Logger.getLogger(RollResult.class.getName());
+    public RollResult(int bonus) {
+        this(bonus, 0);
+    }
+
     /**
-     * Refactor: Thêm từ khóa "private" cho các biến instance Lý do: Baỏ vệ tính đóng gói (encapsulation), chỉ cho phép truy cập trong class.
+     * @param bonus Điểm thưởng (modifier) cộng vào tổng
+     * @param expectedFaces Số mặt dự kiến, để cấp phát bộ đệm một lần
      */
-    private int total;
-    private int modifier;
-    private Vector<Integer> rolls;
+    public RollResult(int bonus, int expectedFaces) {
+        this(bonus, bonus, expectedFaces > 0 ? new int[expectedFaces] : NO_FACES, 0);
+    }
 
-	/**
-	 *Refactor: Sửa lỗi cú pháp: Constructor private bị thiếu dấu ")"
-	 */
     /**
-     * Refactor: Sửa lỗi cú pháp: Constructor private bị thiếu dấu ")"
+     * Thêm kết quả của một lần tung.
+     *
+     * @param res Giá trị tung được, phải lớn hơn 0
+     * @throws IllegalArgumentException nếu giá trị tung không hợp lệ (nhỏ hơn hoặc bằng 0)
      */
-    private RollResult(int total, int modifier, Vector<Integer> rolls) {
-        this.total = total;
-        this.modifier = modifier;
-		/**
-		 *Refactor: Sửa lỗi cú pháp: Thêm dấu "." vào giữa this và rolls
-		 *lý do: thisRolls không hợp lệ. Vì cần có dấu "." để truy cập biến instance
-		 */
-        this.rolls = rolls; 
-        /**
-         * Refactor: Sửa lỗi cú pháp: Thêm dấu "." vào giữa this và rolls lý do:
-         * thisRolls không hợp lệ. Vì cần có dấu "." để truy cập biến instance
-         */
-        this.rolls = rolls;
-        logger.log(Level.INFO, "Tạo RollResult (private constructor) với total={0}, modifier={1}, rolls={2}",
-                new Object[]{total, modifier, rolls});
+    void addResult(int res) {
+        if (res <= 0) {
+            throw new IllegalArgumentException("Giá trị tung phải lớn hơn 0");
+        }
+        if (count == faces.length) {
+            faces = Arrays.copyOf(faces, Math.max(8, count * 2));
+        }
+        faces[count++] = res;
+        total += res;
     }
 
-    public RollResult(int bonus) {
-        this.total = bonus;
-        this.modifier = bonus;
-		/**
-		 *Refactor: Sử dụng diamond operator '<>', thay vì 'new Vector<Integer>()'
-		 *Lý do: Java hỗ trợ diamond operator giúp code ngắn gọn, rõ ràng hơn.
-		 */
-        rolls = new Vector<>();
-        /**
-		 * * Refactor: Sử dụng diamond operator '<>', thay vì 'new
-         * Vector<Integer>()' Lý do: Java hỗ trợ diamond operator giúp code ngắn
-         * gọn, rõ ràng hơn.
-         */
-        this.rolls = new Vector<>();
-        logger.log(Level.INFO, "Tạo RollResult với bonus={0}", bonus);
-    }
-
-	/**
-	 *Refactor: Sửa lỗi logic: Hàm bị comment trong bài
-	 *lý do: Hàm này cần để thêm kết quả vào tổng danh sách rollsrolls
-	 */
-    /**
-     * Refactor: Sửa lỗi logic: Hàm bị comment trong bài lý do: Hàm này cần để
-     * thêm kết quả vào tổng danh sách rollsrolls
-     */
-    public void addResult(int res) {
-        total += res *2;
-        rolls.add(res);
-        logger.log(Level.INFO, "Thêm kết quả: {0}. Tổng mới: {1}", new Object[]{res, total});
+    /**
+     * Tung n xúc xắc sides mặt thẳng vào bộ đệm mặt (FastDice.fill), không kiểm tra từng giá trị.
+     *
+     * @param random Nguồn ngẫu nhiên
+     * @param sides Số mặt, lớn hơn 0
+     * @param n Số xúc xắc
+     */
+    void addFaces(RandomGenerator random, int sides, int n) {
+        if (faces.length - count < n) {
+            faces = Arrays.copyOf(faces, Math.max(8, Math.max(count * 2, count + n)));
+        }
+        total += (int) FastDice.fill(random, sides, faces, count, n);
+        count += n;
+    }
+
+    /**
+     * Chép n mặt từ src[offset ..] vào cuối kết quả và cộng chúng vào tổng, không kiểm tra từng giá trị.
+     *
+     * @param src Mảng nguồn
+     * @param offset Vị trí bắt đầu
+     * @param n Số mặt
+     */
+    void addFaces(int[] src, int offset, int n) {
+        if (faces.length - count < n) {
+            faces = Arrays.copyOf(faces, Math.max(8, Math.max(count * 2, count + n)));
+        }
+        System.arraycopy(src, offset, faces, count, n);
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += src[offset + i];
+        }
+        total += sum;
+        count += n;
+    }
+
+    /**
+     * Chỉnh tổng mà không thêm mặt nào, cho các phép tung có tổng khác tổng các mặt
+     * (giữ k xúc xắc, đếm thành công).
+     *
+     * @param delta Giá trị cộng vào tổng
+     */
+    void adjustTotal(int delta) {
+        total += delta;
+    }
+
+    /**
+     * @return Bộ đệm mặt nội bộ, hợp lệ từ 0 đến size() - 1; không được sửa
+     */
+    int[] faceBuffer() {
+        return faces;
+    }
+
+    /**
+     * Cộng thêm vào modifier (và tổng), dùng khi nhiều DieRoll ghi chung một kết quả.
+     *
+     * @param bonus Giá trị cộng thêm
+     */
+    void addModifier(int bonus) {
+        modifier += bonus;
+        total += bonus;
+    }
+
+    /**
+     * Xoá các mặt đã tung để dùng lại đối tượng; bộ đệm mặt được giữ lại.
+     *
+     * @param bonus Modifier mới
+     */
+    void reset(int bonus) {
+        count = 0;
+        modifier = bonus;
+        total = bonus;
     }
 
     /*** Kết hợp đối tượng hiện tại với một đối tượng RollResult khác. Tổng điểm,
-     * modifier và danh sách rolls sẽ được gộp lại.
+     * modifier và danh sách mặt sẽ được gộp lại.
      *
      * @param r2 Đối tượng RollResult cần gộp
      * @return Một đối tượng RollResult mới chứa kết quả tổng hợp
      */
     public RollResult andThen(RollResult r2) {
-		/**
-		 *Refactor: Đổi tên biến tránh trùng tên với tên biến 'total' ở trên
-		 *Lý do: Tránh hiểu nhầm với biến instance 'this.totaltotal'
-		 */
-        int newTotal = this.total + r2.total; 
-        Vector<Integer> rolls = new Vector<>();
-        rolls.addAll(this.rolls);
-        rolls.addAll(r2.rolls);
-        return new RollResult(newTotal, this.modifier + r2.modifier,rolls);
+        int[] merged = Arrays.copyOf(this.faces, this.count + r2.count);
+        System.arraycopy(r2.faces, 0, merged, this.count, r2.count);
+        return new RollResult(this.total + r2.total, this.modifier + r2.modifier, merged, merged.length);
+    }
+
+    /**
+     * @return Tổng của lần tung cộng modifier: thường là tổng các mặt; với phép giữ k xúc xắc
+     *         là tổng các mặt được giữ, với phép đếm thành công là số thành công
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return Điểm thưởng (modifier)
+     */
+    public int getBonus() {
+        return modifier;
+    }
+
+    /**
+     * @return Số mặt đã tung
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param index Vị trí mặt, từ 0 đến size() - 1
+     * @return Giá trị mặt tại vị trí index
+     * @throws IndexOutOfBoundsException nếu index không hợp lệ
+     */
+    public int getFace(int index) {
+        Objects.checkIndex(index, count);
+        return faces[index];
+    }
+
+    /**
+     * Chép các mặt vào mảng của người gọi, không cấp phát.
+     *
+     * @param dst Mảng đích, cần ít nhất offset + size() phần tử
+     * @param offset Vị trí bắt đầu trong dst
+     */
+    public void copyFaces(int[] dst, int offset) {
+        System.arraycopy(faces, 0, dst, offset, count);
+    }
 
+    /**
+     * Lấy danh sách các lần tung (có boxing, chỉ dành cho code cũ / hiển thị).
+     *
+     * @return Bản sao của danh sách các lần tung
+     */
+    public List<Integer> getRolls() {
+        List<Integer> copy = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            copy.add(faces[i]);
+        }
+        return copy;
     }
 
     /**
@@ -118,29 +227,20 @@ public class RollResult { // Lỗi cú pháp: Thêm dấu '{' mở đầu classc
      *
      * @return Chuỗi thể hiện tổng điểm, các roll, và modifier nếu có
      */
+    @Override
     public String toString() {
-		/**
-		 *Refactor: Dùng StringBuilder thay vì nối chuỗi trực tiếp 
-		 *Lý do: StringBuilder hiệu quả hơn khi nối nhiều chuỗi
-		 */
-        /**
-         * Refactor: Dùng StringBuilder thay vì nối chuỗi trực tiếp Lý do: StringBuilder hiệu quả hơn khi nối nhiều chuỗi
-         */
-        StringBuilder sb = new StringBuilder();
-        sb.append(total).append(" <= ").append(rolls);
+        StringBuilder sb = new StringBuilder(16 + count * 3);
+        sb.append(total).append(" <= [");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(faces[i]);
+        }
+        sb.append(']');
         if (modifier != 0) {
             sb.append(" (modifier: ").append(modifier).append(")");
         }
-        logger.log(Level.FINE, "Chuỗi kết quả: {0}", sb.toString());
         return sb.toString();
     }
-	/**
-     * Refactor: Sửa lỗi cú pháp: Thêm dấu '}' ở cuối class
-	 *Lý do: Trình biên dịch Java không tìm thấy dấu '}' để đóng class -> Báo lỗi 
-	 */
-
-    /**
-     * Refactor: Sửa lỗi cú pháp: Thêm dấu '}' ở cuối class Lý do: Trình biên
-     * dịch Java không tìm thấy dấu '}' để đóng class -> Báo lỗi
-     */
-}
\ No newline at end of file
+}
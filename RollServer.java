@@ -0,0 +1,371 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Server HTTP/JSON không giao diện, thay cho JDice.main khi chạy như một dịch vụ.
+ *
+ * POST /roll       thân là một biểu thức (có thể nhiều phần nối bằng ';'), trả về
+ *                  {"expression":"...","rolls":[{"roll":"2d6+3","total":12,"bonus":3,"faces":[4,5]}]}
+ * POST /roll/batch thân là nhiều dòng, mỗi dòng một biểu thức (cho phép "name=expr" như
+ *                  BatchRoller), trả về một mảng JSON, mỗi DieRoll một phần tử có "line" và
+ *                  "name", hoặc {"line":n,"expression":"...","error":"...","offset":k} nếu dòng lỗi.
+ * GET  /metrics    số liệu RollMetrics ở dạng văn bản của Prometheus.
+ *
+ * Biểu thức đi qua DiceParser.parse() nên dùng chung cache biểu thức đã biên dịch. Mỗi
+ * phản hồi được dựng trọn trong bộ nhớ rồi ghi một lần với Content-Length cố định, nên
+ * kết nối keep-alive (và các request gửi nối đuôi trên cùng kết nối) được giữ nguyên.
+ * Các request chạy trên RollExecutors.newRollExecutor() (virtual thread nếu có).
+ *
+ * Biểu thức được giới hạn trước khi tung, vì "2000000000d6" hay "1000000000x1d6" chỉ vài byte
+ * nhưng cần hàng GB bộ nhớ (OutOfMemoryError làm sập cả JVM):
+ * - jdice.server.maxDice: số xúc xắc tối đa của một số hạng (400 nếu vượt);
+ * - jdice.server.maxRepeat: số lần lặp "Nx" tối đa (400 nếu vượt);
+ * - jdice.server.maxFaces: tổng số mặt tối đa của một request, cộng qua mọi dòng của
+ *   /roll/batch (413 nếu vượt).
+ * Hai giới hạn đầu được DiceParser.parse(String, int, int) kiểm tra ngay khi phân tích (trước khi
+ * sinh kế hoạch tung, hoặc trên kích thước lưu trong cache); giới hạn số mặt kiểm tra trên kế hoạch.
+ */
+public class RollServer {
+
+    private static final Logger LOGGER = Logger.getLogger(RollServer.class.getName());
+
+    /** Kích thước thân request tối đa, đổi bằng -Djdice.server.maxBody=N (byte). */
+    private static final int MAX_BODY = Integer.getInteger("jdice.server.maxBody", 16 * 1024 * 1024);
+
+    /** Số xúc xắc tối đa của một số hạng, đổi bằng -Djdice.server.maxDice=N. */
+    private static final int MAX_DICE = Integer.getInteger("jdice.server.maxDice", 100_000);
+
+    /** Số lần lặp "Nx" tối đa, đổi bằng -Djdice.server.maxRepeat=N. */
+    private static final int MAX_REPEAT = Integer.getInteger("jdice.server.maxRepeat", 10_000);
+
+    /** Tổng số mặt tối đa của một request, đổi bằng -Djdice.server.maxFaces=N. */
+    private static final long MAX_FACES = Long.getLong("jdice.server.maxFaces", 1_000_000L);
+
+    private static final String JSON = "application/json; charset=utf-8";
+
+    private static final String PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param address Địa chỉ lắng nghe; cổng 0 để hệ điều hành tự chọn
+     * @throws IOException nếu không mở được cổng
+     */
+    public RollServer(InetSocketAddress address) throws IOException {
+        // Tắt Nagle: header và thân được flush riêng, với Nagle + delayed ACK mỗi request
+        // keep-alive bị trễ khoảng 40 ms. Phải đặt trước khi HttpServer đọc cấu hình.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(address, 0);
+        this.executor = RollExecutors.newRollExecutor("jdice-http");
+        server.setExecutor(executor);
+        server.createContext("/roll", new Handler() {
+            @Override
+            void handle(HttpExchange ex, byte[] body) throws IOException {
+                if (!"/roll".equals(ex.getRequestURI().getPath())) {
+                    sendError(ex, 404, "Không tìm thấy: " + ex.getRequestURI().getPath(), -1);
+                    return;
+                }
+                String expr = new String(body, StandardCharsets.UTF_8);
+                CompiledRoll plan;
+                try {
+                    plan = DiceParser.parse(expr, MAX_DICE, MAX_REPEAT);
+                } catch (DiceParseException e) {
+                    sendError(ex, 400, e.getReason(), e.getErrorOffset());
+                    return;
+                }
+                checkFaces(plan.getFaceCount());
+                StringBuilder sb = new StringBuilder(64 + plan.size() * 48);
+                sb.append("{\"expression\":");
+                appendString(sb, plan.getExpression());
+                sb.append(",\"rolls\":[");
+                RollResult[] results = plan.roll();
+                for (int i = 0; i < plan.size(); i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    appendRoll(sb.append('{'), plan.get(i), results[i]).append('}');
+                }
+                sb.append("]}");
+                send(ex, 200, sb);
+            }
+        });
+        server.createContext("/roll/batch", new Handler() {
+            @Override
+            void handle(HttpExchange ex, byte[] body) throws IOException {
+                if (!"/roll/batch".equals(ex.getRequestURI().getPath())) {
+                    sendError(ex, 404, "Không tìm thấy: " + ex.getRequestURI().getPath(), -1);
+                    return;
+                }
+                StringBuilder sb = new StringBuilder(Math.max(64, body.length * 4));
+                sb.append('[');
+                BatchRoller roller = new BatchRoller(new JsonSink(sb));
+                long[] faces = new long[1];
+                roller.setLimits(MAX_DICE, MAX_REPEAT);
+                roller.setGuard((plan, input) -> {
+                    faces[0] += plan.getFaceCount();
+                    checkFaces(faces[0]);
+                });
+                roller.run(new ByteArrayInputStream(body));
+                sb.append(']');
+                send(ex, 200, sb);
+            }
+        });
+        server.createContext("/metrics", ex -> {
+            try {
+                if (!"/metrics".equals(ex.getRequestURI().getPath())) {
+                    sendError(ex, 404, "Không tìm thấy: " + ex.getRequestURI().getPath(), -1);
+                    return;
+                }
+                if (!"GET".equals(ex.getRequestMethod())) {
+                    ex.getResponseHeaders().set("Allow", "GET");
+                    sendError(ex, 405, "Chỉ hỗ trợ GET", -1);
+                    return;
+                }
+                StringBuilder sb = new StringBuilder(4096);
+                RollMetrics.writePrometheus(sb);
+                send(ex, 200, PROMETHEUS, sb);
+            } finally {
+                ex.close();
+            }
+        });
+    }
+
+    /**
+     * Bắt đầu nhận request.
+     */
+    public void start() {
+        server.start();
+        LOGGER.log(Level.INFO, "RollServer listening on {0}", server.getAddress());
+    }
+
+    /**
+     * Dừng server và executor.
+     *
+     * @param delaySeconds Thời gian tối đa chờ các request đang xử lý
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * @return Địa chỉ thực sự đang lắng nghe (hữu ích khi khởi tạo với cổng 0)
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Kiểm tra phương thức và đọc thân request trước khi giao cho handle().
+     */
+    private abstract static class Handler implements HttpHandler {
+
+        abstract void handle(HttpExchange ex, byte[] body) throws IOException;
+
+        @Override
+        public void handle(HttpExchange ex) throws IOException {
+            long start = System.nanoTime();
+            try {
+                if (!"POST".equals(ex.getRequestMethod())) {
+                    ex.getResponseHeaders().set("Allow", "POST");
+                    sendError(ex, 405, "Chỉ hỗ trợ POST", -1);
+                    return;
+                }
+                byte[] body;
+                try (InputStream in = ex.getRequestBody()) {
+                    body = in.readNBytes(MAX_BODY + 1);
+                }
+                if (body.length > MAX_BODY) {
+                    sendError(ex, 413, "Thân request vượt quá " + MAX_BODY + " byte", -1);
+                    return;
+                }
+                handle(ex, body);
+            } catch (TooLarge e) {
+                sendError(ex, 413, e.getMessage(), -1);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Lỗi khi xử lý " + ex.getRequestURI(), e);
+                sendError(ex, 500, "Lỗi nội bộ", -1);
+            } finally {
+                ex.close();
+                RollMetrics.request(RollMetrics.Frontend.HTTP, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Request cần tung nhiều mặt hơn MAX_FACES; Handler trả về 413.
+     */
+    private static final class TooLarge extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TooLarge(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * @param faces Tổng số mặt của request tính tới hiện tại
+     * @throws TooLarge nếu vượt MAX_FACES
+     */
+    private static void checkFaces(long faces) {
+        if (faces > MAX_FACES) {
+            RollMetrics.parseFailed(DiceParseException.Kind.LIMIT_EXCEEDED);
+            throw new TooLarge("Request cần tung quá " + MAX_FACES + " mặt");
+        }
+    }
+
+    /**
+     * Sink của BatchRoller ghi mỗi kết quả thành một phần tử của mảng JSON.
+     */
+    private static final class JsonSink implements BatchRoller.Sink {
+        private final StringBuilder sb;
+        private boolean first = true;
+
+        JsonSink(StringBuilder sb) {
+            this.sb = sb;
+        }
+
+        private StringBuilder begin(long line) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            return sb.append("{\"line\":").append(line);
+        }
+
+        @Override
+        public void onRoll(long line, String name, DieRoll roll, RollResult result) {
+            begin(line);
+            if (name != null) {
+                appendString(sb.append(",\"name\":"), name);
+            }
+            appendRoll(sb.append(','), roll, result).append('}');
+        }
+
+        @Override
+        public void onError(long line, String expression, DiceParseException error) {
+            begin(line);
+            appendString(sb.append(",\"expression\":"), expression);
+            appendString(sb.append(",\"error\":"), error.getReason());
+            sb.append(",\"offset\":").append(error.getErrorOffset()).append('}');
+        }
+    }
+
+    private static StringBuilder appendRoll(StringBuilder sb, DieRoll roll, RollResult result) {
+        appendString(sb.append("\"roll\":"), roll.getExpression());
+        sb.append(",\"total\":").append(result.getTotal());
+        sb.append(",\"bonus\":").append(result.getBonus());
+        sb.append(",\"faces\":[");
+        for (int i = 0; i < result.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(result.getFace(i));
+        }
+        return sb.append(']');
+    }
+
+    private static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static void sendError(HttpExchange ex, int status, String message, int offset) throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        appendString(sb.append("{\"error\":"), message);
+        if (offset >= 0) {
+            sb.append(",\"offset\":").append(offset);
+        }
+        send(ex, status, sb.append('}'));
+    }
+
+    /**
+     * Ghi toàn bộ phản hồi trong một lần với Content-Length cố định.
+     */
+    private static void send(HttpExchange ex, int status, CharSequence json) throws IOException {
+        send(ex, status, JSON, json);
+    }
+
+    private static void send(HttpExchange ex, int status, String contentType, CharSequence body) throws IOException {
+        byte[] out = body.toString().getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", contentType);
+        ex.sendResponseHeaders(status, out.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(out);
+        }
+    }
+
+    /**
+     * Dùng từ dòng lệnh: java RollServer [port] [host]
+     * Mặc định lắng nghe 127.0.0.1:8080.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = (args.length >= 1) ? Integer.parseInt(args[0]) : 8080;
+        String host = (args.length >= 2) ? args[1] : "127.0.0.1";
+        RollMetrics.registerMBean();
+        RollServer rs = new RollServer(new InetSocketAddress(host, port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> rs.stop(1)));
+        rs.start();
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Chế độ trace từng lần tung, bật/tắt được lúc chạy.
+ *
+ * Khi tắt (mặc định), code tung xúc xắc chỉ đọc một biến volatile: không tạo mảng
+ * varargs, không boxing, không nối chuỗi. Khi bật, mỗi lần tung ghi một dòng INFO
+ * vào logger "jdice.trace". Lớp này không thay đổi cấu hình của root logger.
+ */
+public final class RollTrace {
+
+    private static final Logger LOGGER = Logger.getLogger("jdice.trace");
+
+    private static volatile boolean enabled = Boolean.getBoolean("jdice.trace");
+
+    private RollTrace() {
+    }
+
+    /**
+     * @return true nếu đang trace từng lần tung
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Bật hoặc tắt trace lúc chạy (mặc định lấy từ -Djdice.trace=true).
+     *
+     * @param on true để bật
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Ghi một lần tung. Người gọi nên kiểm tra isEnabled() trước để tránh chi phí khi tắt.
+     *
+     * @param roll DieRoll vừa tung
+     * @param result Kết quả tung
+     */
+    static void roll(DieRoll roll, RollResult result) {
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, roll.getExpression() + " => " + result);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.random.RandomGenerator;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Đếm thành công ("10d10>=7"): tổng là số xúc xắc có mặt không nhỏ hơn ngưỡng, cộng điểm thưởng.
+ *
+ * Mọi mặt vẫn được ghi vào RollResult. Việc đếm không rẽ nhánh: mặt f thành công khi
+ * (target - 1 - f) âm, nên bit dấu (target - 1 - f) >>> 31 chính là 0 hoặc 1.
+ */
+public class SuccessDieRoll extends DieRoll {
+
+    private final int target;
+
+    /**
+     * @param numDice Số xúc xắc
+     * @param numSides Số mặt của mỗi xúc xắc
+     * @param target Mặt nhỏ nhất được tính là thành công, từ 1 đến numSides
+     * @param bonus Điểm thưởng thêm vào kết quả
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public SuccessDieRoll(int numDice, int numSides, int target, int bonus) {
+        super(numDice, numSides, bonus);
+        if (target < 1 || target > numSides) {
+            throw new IllegalArgumentException("Ngưỡng thành công phải từ 1 đến " + numSides);
+        }
+        this.target = target;
+    }
+
+    /**
+     * @return Mặt nhỏ nhất được tính là thành công
+     */
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * Chỉ hỗ trợ tung từng xúc xắc; mọi chế độ đều trả về chính đối tượng này.
+     */
+    @Override
+    public DieRoll withTotalMode(TotalMode mode) {
+        return this;
+    }
+
+    @Override
+    public void rollInto(RandomGenerator random, RollResult into) {
+        int start = into.size();
+        super.rollInto(random, into);
+        countInto(into, start);
+    }
+
+    @Override
+    int rollSeededInto(long key, long gamma, int firstDie, RollResult into) {
+        int start = into.size();
+        int next = super.rollSeededInto(key, gamma, firstDie, into);
+        countInto(into, start);
+        return next;
+    }
+
+    /**
+     * Thay tổng các mặt trong into[start .. start + N) bằng số thành công.
+     */
+    private void countInto(RollResult into, int start) {
+        int[] faces = into.faceBuffer();
+        int all = 0;
+        for (int i = 0; i < getNumDice(); i++) {
+            all += faces[start + i];
+        }
+        into.adjustTotal(count(faces, start) - all);
+    }
+
+    @Override
+    public int rollFaces(RandomGenerator random, int[] out, int offset) {
+        super.rollFaces(random, out, offset);
+        return count(out, offset) + getBonus();
+    }
+
+    @Override
+    public int rollTotal(RandomGenerator random) {
+        return rollFaces(random, new int[getNumDice()], 0);
+    }
+
+    private int count(int[] faces, int offset) {
+        int t = target - 1;
+        int successes = 0;
+        for (int i = offset; i < offset + getNumDice(); i++) {
+            successes += (t - faces[i]) >>> 31;
+        }
+        return successes;
+    }
+
+    @Override
+    public int getMinTotal() {
+        return getBonus();
+    }
+
+    @Override
+    public int getMaxTotal() {
+        return getNumDice() + getBonus();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && target == ((SuccessDieRoll) o).target;
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode() * 31 + target;
+    }
+
+    @Override
+    void appendOperator(StringBuilder sb) {
+        sb.append(">=").append(target);
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.random.RandomGenerator;
+
+/*
+JDice: Java Dice Rolling Program
+Copyright (C) 2006 Andrew D. Hilton  (adhilton@cis.upenn.edu)
+
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ */
+
+/**
+ * Lấy mẫu trực tiếp tổng của NdS mà không tung từng xúc xắc (dùng cho DieRoll.TotalMode).
+ *
+ * - DISTRIBUTION: tra ngược hàm phân phối tích luỹ chính xác (DiceDistribution), O(log N).
+ *   Bảng CDF được tính một lần cho mỗi cặp (N, S) và dùng chung giữa các luồng; DieRoll lấy bảng
+ *   một lần khi khởi tạo nên mỗi lần lấy mẫu không phải tra cache.
+ * - NORMAL: xấp xỉ chuẩn (định lý giới hạn trung tâm, họ Irwin–Hall) có hiệu chỉnh liên tục, O(1).
+ *   Sai số của hàm phân phối bị chặn bởi bất đẳng thức Berry–Esseen, xem normalErrorBound().
+ */
+final class TotalSampler {
+
+    /** Hằng số Berry–Esseen cho biến độc lập cùng phân phối (Shevtsova, 2011). */
+    static final double BERRY_ESSEEN_C = 0.4748;
+
+    /** Số bảng CDF tối đa được giữ lại; vượt quá thì xoá toàn bộ. */
+    private static final int MAX_TABLES = 256;
+
+    private static final ConcurrentHashMap<Long, double[]> CDF = new ConcurrentHashMap<>();
+
+    private TotalSampler() {
+    }
+
+    /**
+     * @param cdf Bảng trả về bởi cdf(n, s)
+     * @return Tổng của n xúc xắc s mặt (chưa cộng điểm thưởng), lấy mẫu từ phân phối chính xác
+     */
+    static int sampleDistribution(double[] cdf, int n, RandomGenerator random) {
+        double u = random.nextDouble() * cdf[cdf.length - 1];
+        int lo = 0, hi = cdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cdf[mid] > u) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return n + lo;
+    }
+
+    /**
+     * @return Tổng của n xúc xắc s mặt (chưa cộng điểm thưởng), xấp xỉ chuẩn làm tròn về số nguyên gần nhất
+     */
+    static int sampleNormal(int n, int s, RandomGenerator random) {
+        double mean = (double) n * (s + 1) / 2;
+        double sd = Math.sqrt(n * ((double) s * s - 1) / 12.0);
+        long x = Math.round(mean + sd * random.nextGaussian());
+        long max = (long) n * s;
+        return (int) Math.max(n, Math.min(max, x));
+    }
+
+    /**
+     * Cận trên Berry–Esseen của sup |F(x) - Φ(x)| giữa phân phối thật của tổng NdS và
+     * phân phối chuẩn cùng kỳ vọng / phương sai: C * ρ / (σ³ * √N), với ρ = E|X - μ|³ của một xúc xắc.
+     *
+     * @return Cận sai số của hàm phân phối tích luỹ (0 nếu s == 1)
+     */
+    static double normalErrorBound(int n, int s) {
+        if (s == 1) {
+            return 0;
+        }
+        double mu = (s + 1) / 2.0;
+        double rho = 0;
+        for (int k = 1; k <= s; k++) {
+            double d = Math.abs(k - mu);
+            rho += d * d * d;
+        }
+        rho /= s;
+        double sigma = Math.sqrt(((double) s * s - 1) / 12.0);
+        return BERRY_ESSEEN_C * rho / (sigma * sigma * sigma * Math.sqrt(n));
+    }
+
+    /**
+     * @return Hàm phân phối tích luỹ (chưa chuẩn hoá) của tổng n xúc xắc s mặt; phần tử i ứng với tổng n + i
+     */
+    static double[] cdf(int n, int s) {
+        Long key = ((long) n << 32) | (s & 0xFFFFFFFFL);
+        double[] table = CDF.get(key);
+        if (table != null) {
+            return table;
+        }
+        double[] pmf = DiceDistribution.dice(n, s);
+        table = new double[pmf.length];
+        double acc = 0;
+        for (int i = 0; i < pmf.length; i++) {
+            acc += pmf[i];
+            table[i] = acc;
+        }
+        if (CDF.size() >= MAX_TABLES) {
+            CDF.clear();
+        }
+        CDF.putIfAbsent(key, table);
+        return table;
+    }
+}